@@ -0,0 +1,58 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.benchmark;
+
+import se.vgregion.dao.domain.patterns.valueobject.AbstractValueObject;
+
+/**
+ * Value object with a typical mix of field types, used by the benchmarks.
+ */
+public class Address extends AbstractValueObject {
+
+    private final String street;
+
+    private final int number;
+
+    private final String postalCode;
+
+    private final String city;
+
+    public Address(String street, int number, String postalCode, String city) {
+        this.street = street;
+        this.number = number;
+        this.postalCode = postalCode;
+        this.city = city;
+    }
+
+    public String getStreet() {
+        return street;
+    }
+
+    public int getNumber() {
+        return number;
+    }
+
+    public String getPostalCode() {
+        return postalCode;
+    }
+
+    public String getCity() {
+        return city;
+    }
+}
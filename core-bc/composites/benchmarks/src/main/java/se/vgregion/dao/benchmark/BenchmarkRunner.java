@@ -0,0 +1,58 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks once for every thread count and writes the results of each run as JSON, e.g.
+ * 
+ * <pre>
+ * java -jar target/benchmarks.jar InMemoryRepository 1,2,4,8
+ * </pre>
+ * 
+ * The first argument is a regular expression selecting the benchmarks, all by default. The second is a comma
+ * separated list of thread counts, 1, 2, 4 and 8 by default. The results are written to
+ * <code>jmh-result-&lt;threads&gt;.json</code> in the working directory. Forks, warmup and measurement are fixed
+ * by the annotations on the benchmarks so that runs on the same machine can be compared.
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+        // main class
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        String include = args.length > 0 ? args[0] : ".*";
+        String threadCounts = args.length > 1 ? args[1] : "1,2,4,8";
+        for (String threads : threadCounts.split(",")) {
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(Integer.parseInt(threads.trim()))
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("jmh-result-" + threads.trim() + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
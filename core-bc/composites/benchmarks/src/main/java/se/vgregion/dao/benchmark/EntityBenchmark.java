@@ -0,0 +1,109 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.benchmark;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.vgregion.dao.domain.patterns.entity.AbstractEntity;
+
+/**
+ * Cost of {@link AbstractEntity#equals(Object)} and {@link AbstractEntity#hashCode()}, both directly and through
+ * a hash set lookup over <code>size</code> entities.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EntityBenchmark {
+
+    private static final long SEED = 42L;
+
+    @Param({ "100", "10000" })
+    private int size;
+
+    private Person entity;
+
+    private Person sameEntity;
+
+    private Person otherEntity;
+
+    private Set<Person> set;
+
+    private List<Person> probes;
+
+    private int next;
+
+    @Setup
+    public void setUp() {
+        entity = new Person(1L, "first");
+        sameEntity = new Person(1L, "first");
+        otherEntity = new Person(2L, "second");
+
+        set = new HashSet<Person>();
+        for (long id = 0; id < size; id++) {
+            set.add(new Person(id, "person" + id));
+        }
+        // half of the probes are in the set
+        Random random = new Random(SEED);
+        probes = new ArrayList<Person>();
+        for (int i = 0; i < 1024; i++) {
+            long id = random.nextInt(size * 2);
+            probes.add(new Person(id, "person" + id));
+        }
+    }
+
+    @Benchmark
+    public boolean equalsSameId() {
+        return entity.equals(sameEntity);
+    }
+
+    @Benchmark
+    public boolean equalsOtherId() {
+        return entity.equals(otherEntity);
+    }
+
+    @Benchmark
+    public int hashCodeOfId() {
+        return entity.hashCode();
+    }
+
+    @Benchmark
+    public boolean hashSetContains() {
+        return set.contains(probes.get(next++ & 1023));
+    }
+}
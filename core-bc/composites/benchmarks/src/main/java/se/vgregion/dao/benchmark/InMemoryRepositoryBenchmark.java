@@ -0,0 +1,132 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.benchmark;
+
+import java.util.Collection;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.vgregion.dao.domain.patterns.repository.inmemory.InMemoryRepository;
+
+/**
+ * Throughput of {@link InMemoryRepository} shared by all benchmark threads, for <code>size</code> entities with
+ * and without an index on the attribute searched by {@link #findByAttribute(Cursor)}. Run it with different thread
+ * counts, e.g. through {@link BenchmarkRunner}, to see how the repository behaves under contention. The
+ * <code>readWrite</code> group runs three readers for every writer.
+ * <p/>
+ * Every thread draws its IDs from its own generator with a fixed seed, so repeated runs issue the same operations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class InMemoryRepositoryBenchmark {
+
+    private static final int NAMES = 100;
+
+    @Param({ "1000", "100000" })
+    private int size;
+
+    @Param({ "false", "true" })
+    private boolean indexed;
+
+    private InMemoryRepository<Person, Long> repository;
+
+    private final AtomicInteger threads = new AtomicInteger();
+
+    @Setup
+    public void setUp() {
+        repository = new InMemoryRepository<Person, Long>();
+        if (indexed) {
+            repository.addIndex("name");
+        }
+        for (long id = 0; id < size; id++) {
+            repository.store(new Person(id, nameOf(id)));
+        }
+    }
+
+    @Benchmark
+    public Person find(Cursor cursor) {
+        return repository.find(cursor.nextId(size));
+    }
+
+    @Benchmark
+    public Person store(Cursor cursor) {
+        long id = cursor.nextId(size);
+        return repository.store(new Person(id, nameOf(id)));
+    }
+
+    @Benchmark
+    public Collection<Person> findByAttribute(Cursor cursor) {
+        return repository.findByAttribute("name", nameOf(cursor.nextId(NAMES)));
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(3)
+    public Person readWriteFind(Cursor cursor) {
+        return find(cursor);
+    }
+
+    @Benchmark
+    @Group("readWrite")
+    @GroupThreads(1)
+    public Person readWriteStore(Cursor cursor) {
+        return store(cursor);
+    }
+
+    private static String nameOf(long id) {
+        return "person" + id % NAMES;
+    }
+
+    /**
+     * Per thread generator of IDs.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private Random random;
+
+        @Setup
+        public void setUp(InMemoryRepositoryBenchmark benchmark) {
+            random = new Random(benchmark.threads.incrementAndGet());
+        }
+
+        long nextId(int bound) {
+            return random.nextInt(bound);
+        }
+    }
+}
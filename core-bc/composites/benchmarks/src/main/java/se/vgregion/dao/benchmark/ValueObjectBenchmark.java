@@ -0,0 +1,85 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import se.vgregion.dao.domain.patterns.valueobject.AbstractValueObject;
+
+/**
+ * Cost of {@link AbstractValueObject#equals(Object)} and {@link AbstractValueObject#hashCode()}. The hash code is
+ * cached after the first call, so {@link #hashCodeUncached()} measures the computation on a new instance,
+ * including its allocation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ValueObjectBenchmark {
+
+    private Address value;
+
+    private Address equalValue;
+
+    private Address differentValue;
+
+    private int number;
+
+    @Setup
+    public void setUp() {
+        value = new Address("Storgatan", 1, "41101", "Göteborg");
+        // equal, but without sharing the String instances
+        equalValue = new Address(new String("Storgatan"), 1, new String("41101"), new String("Göteborg"));
+        differentValue = new Address("Storgatan", 1, "41101", "Borås");
+        value.hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsEqualValue() {
+        return value.equals(equalValue);
+    }
+
+    @Benchmark
+    public boolean equalsDifferentValue() {
+        return value.equals(differentValue);
+    }
+
+    @Benchmark
+    public int hashCodeCached() {
+        return value.hashCode();
+    }
+
+    @Benchmark
+    public int hashCodeUncached() {
+        return new Address("Storgatan", number++, "41101", "Göteborg").hashCode();
+    }
+}
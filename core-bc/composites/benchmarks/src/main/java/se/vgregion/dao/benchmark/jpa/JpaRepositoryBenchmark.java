@@ -0,0 +1,318 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.benchmark.jpa;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.context.support.ClassPathXmlApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import se.vgregion.dao.domain.patterns.repository.db.jpa.QueryResultCache;
+import se.vgregion.dao.domain.patterns.repository.jpa.MockEntity;
+import se.vgregion.dao.domain.patterns.repository.jpa.MockEntityRepository;
+
+/**
+ * Repository operations against the in-memory HSQLDB and Hibernate set up by
+ * <code>JpaMockEntityRepositoryTest-context.xml</code> of the JPA tests, for <code>datasetSize</code> entities.
+ * Every operation runs in a transaction of its own, which is read-only for the reads. The bulk operations handle
+ * <code>batchSize</code> entities per transaction, and {@link #findByNamedQuery(QueryCache, Cursor)} is run with
+ * and without the {@link QueryResultCache}. The writes change the entities of the {@link Slice} of the dataset
+ * that belongs to the benchmark thread, so concurrent threads never share an instance.
+ * <p/>
+ * The table is filled again before every iteration, so the writes of one iteration do not change the dataset of
+ * the next, and the entities are picked by a generator with a fixed seed. Run {@link #main(String[])} to measure
+ * the throughput in operations per second followed by the latency percentiles in microseconds, e.g.
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar se.vgregion.dao.benchmark.jpa.JpaRepositoryBenchmark
+ * </pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = { "-Xms1g", "-Xmx1g" })
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class JpaRepositoryBenchmark {
+
+    private static final String CONTEXT = "classpath:JpaMockEntityRepositoryTest-context.xml";
+
+    private static final String NAMED_QUERY = "MockEntity.findByName";
+
+    private static final int NAMES = 100;
+
+    private static final long SEED = 42L;
+
+    @Param({ "1000", "10000" })
+    private int datasetSize;
+
+    private ClassPathXmlApplicationContext context;
+
+    private MockEntityRepository repository;
+
+    private TransactionTemplate transactionTemplate;
+
+    private TransactionTemplate readOnlyTemplate;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private List<MockEntity> dataset;
+
+    /**
+     * Read the command line arguments as a regular expression selecting the benchmarks, all by default.
+     */
+    public static void main(String[] args) throws RunnerException {
+        String include = JpaRepositoryBenchmark.class.getSimpleName() + "." + (args.length > 0 ? args[0] : ".*");
+        new Runner(new OptionsBuilder().include(include).mode(Mode.Throughput).timeUnit(TimeUnit.SECONDS)
+                .resultFormat(ResultFormatType.JSON).result("jmh-result-jpa-throughput.json").build()).run();
+        new Runner(new OptionsBuilder().include(include).mode(Mode.SampleTime).timeUnit(TimeUnit.MICROSECONDS)
+                .resultFormat(ResultFormatType.JSON).result("jmh-result-jpa-latency.json").build()).run();
+    }
+
+    @Setup
+    public void setUp() {
+        context = new ClassPathXmlApplicationContext(CONTEXT);
+        repository = context.getBean(MockEntityRepository.class);
+        transactionTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        readOnlyTemplate = new TransactionTemplate(context.getBean(PlatformTransactionManager.class));
+        readOnlyTemplate.setReadOnly(true);
+        jdbcTemplate = new JdbcTemplate(context.getBean(DataSource.class));
+    }
+
+    @TearDown
+    public void tearDown() {
+        context.close();
+    }
+
+    /**
+     * Replace the contents of the table with <code>datasetSize</code> entities, which are kept detached for the
+     * benchmarks, and drop the cached query results of the previous iteration.
+     */
+    @Setup(Level.Iteration)
+    public void fill() {
+        jdbcTemplate.update("delete from vgr_test_entity");
+        context.getBean(QueryResultCache.class).invalidateAll();
+        final List<MockEntity> entities = new ArrayList<MockEntity>(datasetSize);
+        for (int i = 0; i < datasetSize; i++) {
+            entities.add(new MockEntity(nameOf(i)));
+        }
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                repository.persistAll(entities);
+                return null;
+            }
+        });
+        dataset = entities;
+    }
+
+    @Benchmark
+    public MockEntity persist(final Cursor cursor) {
+        return inTransaction(new TransactionCallback<MockEntity>() {
+            public MockEntity doInTransaction(TransactionStatus status) {
+                return repository.persist(new MockEntity(nameOf(cursor.next(NAMES))));
+            }
+        });
+    }
+
+    @Benchmark
+    public MockEntity store(Slice slice, final Cursor cursor) {
+        final MockEntity entity = slice.next(cursor);
+        entity.setName(nameOf(cursor.next(NAMES)));
+        return inTransaction(new TransactionCallback<MockEntity>() {
+            public MockEntity doInTransaction(TransactionStatus status) {
+                return repository.store(entity);
+            }
+        });
+    }
+
+    @Benchmark
+    public Collection<MockEntity> findByAttribute(final Cursor cursor) {
+        return inReadOnlyTransaction(new TransactionCallback<Collection<MockEntity>>() {
+            public Collection<MockEntity> doInTransaction(TransactionStatus status) {
+                return repository.findByAttribute("name", nameOf(cursor.next(NAMES)));
+            }
+        });
+    }
+
+    @Benchmark
+    public List<MockEntity> findByNamedQuery(QueryCache queryCache, final Cursor cursor) {
+        return inReadOnlyTransaction(new TransactionCallback<List<MockEntity>>() {
+            public List<MockEntity> doInTransaction(TransactionStatus status) {
+                return repository.findByNamedQuery(NAMED_QUERY, new Object[] { nameOf(cursor.next(NAMES)) });
+            }
+        });
+    }
+
+    @Benchmark
+    public Collection<MockEntity> findAll() {
+        return inReadOnlyTransaction(new TransactionCallback<Collection<MockEntity>>() {
+            public Collection<MockEntity> doInTransaction(TransactionStatus status) {
+                return repository.findAll();
+            }
+        });
+    }
+
+    @Benchmark
+    public List<MockEntity> persistAll(Batch batch, final Cursor cursor) {
+        final List<MockEntity> entities = new ArrayList<MockEntity>(batch.batchSize);
+        for (int i = 0; i < batch.batchSize; i++) {
+            entities.add(new MockEntity(nameOf(cursor.next(NAMES))));
+        }
+        inTransaction(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                repository.persistAll(entities);
+                return null;
+            }
+        });
+        return entities;
+    }
+
+    @Benchmark
+    public List<MockEntity> storeAll(Batch batch, Slice slice, final Cursor cursor) {
+        final List<MockEntity> entities = new ArrayList<MockEntity>(batch.batchSize);
+        for (int i = 0; i < batch.batchSize; i++) {
+            MockEntity entity = slice.next(cursor);
+            entity.setName(nameOf(cursor.next(NAMES)));
+            entities.add(entity);
+        }
+        inTransaction(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                repository.storeAll(entities);
+                return null;
+            }
+        });
+        return entities;
+    }
+
+    @Benchmark
+    public List<MockEntity> findAllById(Batch batch, final Cursor cursor) {
+        final List<Long> ids = new ArrayList<Long>(batch.batchSize);
+        for (int i = 0; i < batch.batchSize; i++) {
+            ids.add(dataset.get(cursor.next(datasetSize)).getId());
+        }
+        return inReadOnlyTransaction(new TransactionCallback<List<MockEntity>>() {
+            public List<MockEntity> doInTransaction(TransactionStatus status) {
+                return repository.findAllById(ids);
+            }
+        });
+    }
+
+    private <R> R inTransaction(TransactionCallback<R> callback) {
+        return transactionTemplate.execute(callback);
+    }
+
+    private <R> R inReadOnlyTransaction(TransactionCallback<R> callback) {
+        return readOnlyTemplate.execute(callback);
+    }
+
+    private static String nameOf(int i) {
+        return "name" + i % NAMES;
+    }
+
+    /**
+     * The number of entities handled by a bulk operation.
+     */
+    @State(Scope.Benchmark)
+    public static class Batch {
+
+        @Param({ "10", "100", "1000" })
+        private int batchSize;
+    }
+
+    /**
+     * Whether the results of the named query are cached.
+     */
+    @State(Scope.Benchmark)
+    public static class QueryCache {
+
+        @Param({ "false", "true" })
+        private boolean cached;
+
+        @Setup
+        public void setUp(JpaRepositoryBenchmark benchmark) {
+            if (cached) {
+                benchmark.context.getBean(QueryResultCache.class).cacheQuery(NAMED_QUERY, 1, TimeUnit.HOURS,
+                        MockEntity.class);
+            }
+        }
+    }
+
+    /**
+     * The entities of the dataset that the writes of one benchmark thread may change: every
+     * <code>threadCount</code>th entity, starting at the index of the thread.
+     */
+    @State(Scope.Thread)
+    public static class Slice {
+
+        private List<MockEntity> entities;
+
+        @Setup(Level.Iteration)
+        public void setUp(JpaRepositoryBenchmark benchmark, ThreadParams threads) {
+            entities = new ArrayList<MockEntity>();
+            for (int i = threads.getThreadIndex(); i < benchmark.dataset.size(); i += threads.getThreadCount()) {
+                entities.add(benchmark.dataset.get(i));
+            }
+        }
+
+        MockEntity next(Cursor cursor) {
+            return entities.get(cursor.next(entities.size()));
+        }
+    }
+
+    /**
+     * Generator of entities and names with a fixed seed.
+     */
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        private final Random random = new Random(SEED);
+
+        int next(int bound) {
+            return random.nextInt(bound);
+        }
+    }
+}
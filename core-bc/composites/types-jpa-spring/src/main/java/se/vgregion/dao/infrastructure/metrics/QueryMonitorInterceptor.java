@@ -0,0 +1,191 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.infrastructure.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Logs slow repository calls and enforces a budget on the number of queries a transaction may run. Apply it to
+ * the repositories with Spring AOP, e.g.
+ * 
+ * <pre>
+ * &lt;aop:config&gt;
+ *   &lt;aop:advisor pointcut="execution(* se.vgregion.dao.domain.patterns.repository.Repository+.*(..))"&gt;
+ *     &lt;aop:advice&gt;
+ *       &lt;bean class="se.vgregion.dao.infrastructure.metrics.QueryMonitorInterceptor"
+ *           p:slowQueryThresholdMillis="200" p:queryBudget="50" /&gt;
+ *     &lt;/aop:advice&gt;
+ *   &lt;/aop:advisor&gt;
+ * &lt;/aop:config&gt;
+ * </pre>
+ * 
+ * A call that takes at least the slow query threshold is logged at warn level together with its arguments, which
+ * for the query methods are the JPQL or query name and the query parameters.
+ * <p/>
+ * By default every call to a method that runs a statement, i.e. whose name starts with <code>find</code>,
+ * <code>iterate</code>, <code>remove</code>, <code>store</code>, <code>merge</code> or <code>refresh</code>, counts
+ * as one query of the current transaction. With {@link #setCountStatements(boolean) countStatements} set, the
+ * SQL statements counted by a {@link StatementCountingInterceptor} registered with Hibernate are counted instead,
+ * which includes lazy loading and flushes. When a transaction runs more queries than the budget, the query that
+ * exceeds it is logged at warn level once per transaction, or rejected with an {@link IllegalStateException} if
+ * {@link #setFailOnBudgetExceeded(boolean)} is set, which is meant for tests that guard against N+1 query
+ * patterns. Only one monitor should count the queries of a transaction.
+ */
+public class QueryMonitorInterceptor implements MethodInterceptor {
+
+    private static final int MAX_ARGUMENT_LENGTH = 200;
+
+    private static final String[] QUERY_METHOD_PREFIXES = { "find", "iterate", "remove", "store", "merge",
+            "refresh" };
+
+    private final Log log = LogFactory.getLog(QueryMonitorInterceptor.class);
+
+    private long slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(500);
+
+    private int queryBudget;
+
+    private boolean failOnBudgetExceeded;
+
+    private boolean countStatements;
+
+    /**
+     * @param slowQueryThresholdMillis
+     *            the duration from which a call is logged as slow, 500 ms by default
+     */
+    public void setSlowQueryThresholdMillis(long slowQueryThresholdMillis) {
+        this.slowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryThresholdMillis);
+    }
+
+    /**
+     * @param queryBudget
+     *            the number of queries a transaction may run, or 0 (the default) for no budget
+     */
+    public void setQueryBudget(int queryBudget) {
+        this.queryBudget = queryBudget;
+    }
+
+    int getQueryBudget() {
+        return queryBudget;
+    }
+
+    /**
+     * @param failOnBudgetExceeded
+     *            true to reject the queries exceeding the query budget instead of logging them
+     */
+    public void setFailOnBudgetExceeded(boolean failOnBudgetExceeded) {
+        this.failOnBudgetExceeded = failOnBudgetExceeded;
+    }
+
+    boolean isFailOnBudgetExceeded() {
+        return failOnBudgetExceeded;
+    }
+
+    /**
+     * @param countStatements
+     *            true to count the SQL statements reported by a {@link StatementCountingInterceptor} instead of the
+     *            repository calls
+     */
+    public void setCountStatements(boolean countStatements) {
+        this.countStatements = countStatements;
+    }
+
+    boolean isCountStatements() {
+        return countStatements;
+    }
+
+    /**
+     * @return the number of queries run so far in the current transaction, or 0 if transaction synchronization is
+     *         not active
+     */
+    public int getTransactionQueryCount() {
+        TransactionQueryCount count = TransactionQueryCount.current();
+        return count == null ? 0 : count.getQueries();
+    }
+
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        TransactionQueryCount count = TransactionQueryCount.bind(this);
+        if (count != null && !countStatements && isQueryMethod(invocation.getMethod().getName())) {
+            count.add(describe(invocation));
+        }
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } finally {
+            long nanos = System.nanoTime() - start;
+            if (nanos >= slowQueryThresholdNanos) {
+                warn("Slow query (" + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms): " + describe(invocation));
+            }
+        }
+    }
+
+    /**
+     * Log a slow call or an exceeded query budget.
+     */
+    protected void warn(String message) {
+        log.warn(message);
+    }
+
+    private static boolean isQueryMethod(String name) {
+        for (String prefix : QUERY_METHOD_PREFIXES) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String describe(MethodInvocation invocation) {
+        Object target = invocation.getThis();
+        Class<?> type = target == null ? invocation.getMethod().getDeclaringClass() : ClassUtils
+                .getUserClass(target.getClass());
+        StringBuilder description = new StringBuilder(ClassUtils.getShortName(type));
+        description.append('.').append(invocation.getMethod().getName()).append('(');
+        Object[] arguments = invocation.getArguments();
+        for (int i = 0; i < arguments.length; i++) {
+            if (i > 0) {
+                description.append(", ");
+            }
+            description.append(abbreviate(format(arguments[i])));
+        }
+        return description.append(')').toString();
+    }
+
+    private static String format(Object argument) {
+        if (argument instanceof String) {
+            return '"' + (String) argument + '"';
+        } else if (argument instanceof Object[]) {
+            return Arrays.deepToString((Object[]) argument);
+        }
+        return String.valueOf(argument);
+    }
+
+    private static String abbreviate(String argument) {
+        if (argument.length() <= MAX_ARGUMENT_LENGTH) {
+            return argument;
+        }
+        return argument.substring(0, MAX_ARGUMENT_LENGTH) + "...";
+    }
+}
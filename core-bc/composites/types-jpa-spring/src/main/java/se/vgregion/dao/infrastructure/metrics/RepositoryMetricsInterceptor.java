@@ -0,0 +1,118 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.infrastructure.metrics;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+import org.springframework.util.ClassUtils;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+import se.vgregion.dao.domain.patterns.repository.Page;
+import se.vgregion.dao.domain.patterns.repository.metrics.RepositoryMetrics;
+
+/**
+ * Records the duration, outcome and number of rows of every repository call in {@link RepositoryMetrics}, keyed by
+ * the class of the repository and the name of the method. Apply it to the repositories with Spring AOP, e.g.
+ * 
+ * <pre>
+ * &lt;bean id="repositoryMetrics" class="se.vgregion.dao.domain.patterns.repository.metrics.RepositoryMetrics"&gt;
+ *   &lt;property name="MBeanServer"&gt;
+ *     &lt;bean class="java.lang.management.ManagementFactory" factory-method="getPlatformMBeanServer" /&gt;
+ *   &lt;/property&gt;
+ * &lt;/bean&gt;
+ * 
+ * &lt;aop:config&gt;
+ *   &lt;aop:advisor pointcut="execution(* se.vgregion.dao.domain.patterns.repository.Repository+.*(..))"&gt;
+ *     &lt;aop:advice&gt;
+ *       &lt;bean class="se.vgregion.dao.infrastructure.metrics.RepositoryMetricsInterceptor"&gt;
+ *         &lt;constructor-arg ref="repositoryMetrics" /&gt;
+ *       &lt;/bean&gt;
+ *     &lt;/aop:advice&gt;
+ *   &lt;/aop:advisor&gt;
+ * &lt;/aop:config&gt;
+ * </pre>
+ * 
+ * The rows of a call are the size of a returned collection or page, one for a returned entity and the returned
+ * count for methods that return an <code>int</code>, such as the bulk removals. Lazily iterated results are not
+ * counted. When the interceptor is ordered outside the transaction interceptor, the recorded latency includes
+ * the commit.
+ */
+public class RepositoryMetricsInterceptor implements MethodInterceptor {
+
+    private final RepositoryMetrics metrics;
+
+    private final ConcurrentMap<Class<?>, String> repositoryNames = new ConcurrentHashMap<Class<?>, String>();
+
+    /**
+     * @param metrics
+     *            the registry to record the calls in
+     */
+    public RepositoryMetricsInterceptor(RepositoryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        long start = System.nanoTime();
+        Object result = null;
+        Throwable error = null;
+        try {
+            result = invocation.proceed();
+            return result;
+        } catch (Throwable t) {
+            error = t;
+            throw t;
+        } finally {
+            long nanos = System.nanoTime() - start;
+            Method method = invocation.getMethod();
+            metrics.record(repositoryName(invocation), method.getName(), nanos, rowsOf(method, result), error);
+        }
+    }
+
+    private String repositoryName(MethodInvocation invocation) {
+        Object target = invocation.getThis();
+        if (target == null) {
+            return invocation.getMethod().getDeclaringClass().getName();
+        }
+        Class<?> type = target.getClass();
+        String name = repositoryNames.get(type);
+        if (name == null) {
+            name = ClassUtils.getUserClass(type).getName();
+            repositoryNames.put(type, name);
+        }
+        return name;
+    }
+
+    private static int rowsOf(Method method, Object result) {
+        if (result instanceof Collection<?>) {
+            return ((Collection<?>) result).size();
+        } else if (result instanceof Page<?>) {
+            return ((Page<?>) result).getContent().size();
+        } else if (result instanceof Entity<?>) {
+            return 1;
+        } else if (result instanceof Integer && method.getReturnType() == int.class) {
+            return (Integer) result;
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.infrastructure.metrics;
+
+import org.hibernate.EmptyInterceptor;
+
+/**
+ * Hibernate interceptor that counts every SQL statement Hibernate prepares against the query budget of the
+ * current transaction, including the statements of lazy loading and flushes that no repository method sees.
+ * The <code>jpa-hibernate-configuration.xml</code> shipped with this module registers it; other persistence units
+ * register it with
+ * 
+ * <pre>
+ * &lt;prop key="hibernate.ejb.interceptor"&gt;
+ *   se.vgregion.dao.infrastructure.metrics.StatementCountingInterceptor
+ * &lt;/prop&gt;
+ * </pre>
+ * 
+ * and set {@link QueryMonitorInterceptor#setCountStatements(boolean) countStatements} on the
+ * {@link QueryMonitorInterceptor}. Statements are counted from the first repository call the monitor intercepts in
+ * a transaction; without a monitor counting statements the interceptor does nothing.
+ */
+public class StatementCountingInterceptor extends EmptyInterceptor {
+
+    private static final long serialVersionUID = 1L;
+
+    @Override
+    public String onPrepareStatement(String sql) {
+        TransactionQueryCount count = TransactionQueryCount.current();
+        if (count != null && count.countsStatements()) {
+            count.add(sql);
+        }
+        return sql;
+    }
+}
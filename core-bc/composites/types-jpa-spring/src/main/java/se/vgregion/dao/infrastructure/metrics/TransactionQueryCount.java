@@ -0,0 +1,116 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.infrastructure.metrics;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * The queries run by a transaction and the budget they are checked against, bound to the transaction while it is
+ * active. It is shared by the {@link QueryMonitorInterceptor}, which declares the budget, and the
+ * {@link StatementCountingInterceptor}, which counts the statements sent to the database.
+ */
+final class TransactionQueryCount extends TransactionSynchronizationAdapter {
+
+    private final QueryMonitorInterceptor monitor;
+
+    private int queries;
+
+    private boolean reported;
+
+    private TransactionQueryCount(QueryMonitorInterceptor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * @return the count of the current transaction, or <code>null</code> if no count is bound
+     */
+    static TransactionQueryCount current() {
+        return (TransactionQueryCount) TransactionSynchronizationManager.getResource(TransactionQueryCount.class);
+    }
+
+    /**
+     * @return the count of the current transaction, bound on first use, or <code>null</code> if transaction
+     *         synchronization is not active
+     */
+    static TransactionQueryCount bind(QueryMonitorInterceptor monitor) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        TransactionQueryCount count = current();
+        if (count == null) {
+            count = new TransactionQueryCount(monitor);
+            TransactionSynchronizationManager.bindResource(TransactionQueryCount.class, count);
+            TransactionSynchronizationManager.registerSynchronization(count);
+        }
+        return count;
+    }
+
+    /**
+     * @return true if the monitor that bound this count counts statements rather than repository calls
+     */
+    boolean countsStatements() {
+        return monitor.isCountStatements();
+    }
+
+    int getQueries() {
+        return queries;
+    }
+
+    /**
+     * Count a query and check the budget of the monitor that bound this count.
+     * 
+     * @param description
+     *            the query, for the message if the budget is exceeded
+     * @throws IllegalStateException
+     *             if the budget is exceeded and the monitor is set to fail
+     */
+    void add(String description) {
+        queries++;
+        int budget = monitor.getQueryBudget();
+        if (budget <= 0 || queries <= budget) {
+            return;
+        }
+        String name = TransactionSynchronizationManager.getCurrentTransactionName();
+        String message = "Transaction " + (name == null ? "" : "'" + name + "' ") + "exceeded its budget of "
+                + budget + " queries: " + description;
+        if (monitor.isFailOnBudgetExceeded()) {
+            throw new IllegalStateException(message);
+        }
+        if (!reported) {
+            reported = true;
+            monitor.warn(message);
+        }
+    }
+
+    @Override
+    public void suspend() {
+        TransactionSynchronizationManager.unbindResource(TransactionQueryCount.class);
+    }
+
+    @Override
+    public void resume() {
+        TransactionSynchronizationManager.bindResource(TransactionQueryCount.class, this);
+    }
+
+    @Override
+    public void afterCompletion(int status) {
+        TransactionSynchronizationManager.unbindResource(TransactionQueryCount.class);
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.infrastructure.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import se.vgregion.dao.domain.patterns.entity.AbstractEntity;
+import se.vgregion.dao.domain.patterns.repository.Repository;
+import se.vgregion.dao.domain.patterns.repository.inmemory.InMemoryRepository;
+
+public class QueryMonitorInterceptorTest {
+
+    private final List<String> warnings = new ArrayList<String>();
+
+    private QueryMonitorInterceptor interceptor = new QueryMonitorInterceptor() {
+        @Override
+        protected void warn(String message) {
+            warnings.add(message);
+        }
+    };
+
+    private Repository<Person, Long> repository;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        ProxyFactory factory = new ProxyFactory(new InMemoryRepository<Person, Long>());
+        factory.addAdvice(interceptor);
+        repository = (Repository<Person, Long>) factory.getProxy();
+    }
+
+    @After
+    public void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            completeTransaction();
+        }
+    }
+
+    @Test
+    public void logsSlowQueriesWithArguments() {
+        interceptor.setSlowQueryThresholdMillis(0);
+
+        repository.find(7L);
+
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0), warnings.get(0).endsWith("InMemoryRepository.find(7)"));
+    }
+
+    @Test
+    public void countsQueriesPerTransaction() {
+        repository.find(1L);
+        assertEquals(0, interceptor.getTransactionQueryCount());
+
+        TransactionSynchronizationManager.initSynchronization();
+        repository.find(1L);
+        repository.findAll();
+        assertEquals(2, interceptor.getTransactionQueryCount());
+
+        completeTransaction();
+        TransactionSynchronizationManager.initSynchronization();
+        assertEquals(0, interceptor.getTransactionQueryCount());
+        assertTrue(warnings.isEmpty());
+    }
+
+    @Test
+    public void warnsOnceWhenBudgetIsExceeded() {
+        interceptor.setQueryBudget(2);
+        TransactionSynchronizationManager.initSynchronization();
+
+        for (long id = 0; id < 5; id++) {
+            repository.find(id);
+        }
+
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0), warnings.get(0).contains("budget of 2 queries: InMemoryRepository.find(2)"));
+    }
+
+    @Test
+    public void failsWhenBudgetIsExceeded() {
+        interceptor.setQueryBudget(1);
+        interceptor.setFailOnBudgetExceeded(true);
+        TransactionSynchronizationManager.initSynchronization();
+
+        repository.find(1L);
+        try {
+            repository.find(2L);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void doesNotCountCallsThatRunNoStatement() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        Person person = new Person(1L);
+        repository.persist(person);
+        repository.contains(person);
+        repository.flush();
+        repository.find(1L);
+        new StatementCountingInterceptor().onPrepareStatement("select 1");
+
+        assertEquals(1, interceptor.getTransactionQueryCount());
+    }
+
+    @Test
+    public void countsStatementsInsteadOfCalls() {
+        interceptor.setCountStatements(true);
+        interceptor.setQueryBudget(1);
+        StatementCountingInterceptor statements = new StatementCountingInterceptor();
+
+        assertEquals("select 1", statements.onPrepareStatement("select 1"));
+
+        TransactionSynchronizationManager.initSynchronization();
+        repository.find(1L);
+        assertEquals(0, interceptor.getTransactionQueryCount());
+
+        statements.onPrepareStatement("select 1");
+        statements.onPrepareStatement("select 2");
+        assertEquals(2, interceptor.getTransactionQueryCount());
+        assertEquals(1, warnings.size());
+        assertTrue(warnings.get(0), warnings.get(0).endsWith("budget of 1 queries: select 2"));
+    }
+
+    private void completeTransaction() {
+        for (TransactionSynchronization synchronization : TransactionSynchronizationManager.getSynchronizations()) {
+            synchronization.afterCompletion(TransactionSynchronization.STATUS_COMMITTED);
+        }
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    private static class Person extends AbstractEntity<Long> {
+
+        private final Long id;
+
+        Person(Long id) {
+            this.id = id;
+        }
+
+        public Long getId() {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.infrastructure.metrics;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.aop.framework.ProxyFactory;
+
+import se.vgregion.dao.domain.patterns.entity.AbstractEntity;
+import se.vgregion.dao.domain.patterns.repository.Repository;
+import se.vgregion.dao.domain.patterns.repository.inmemory.InMemoryRepository;
+import se.vgregion.dao.domain.patterns.repository.metrics.OperationMetrics;
+import se.vgregion.dao.domain.patterns.repository.metrics.RepositoryMetrics;
+
+public class RepositoryMetricsInterceptorTest {
+
+    private static final String REPOSITORY = InMemoryRepository.class.getName();
+
+    private RepositoryMetrics metrics = new RepositoryMetrics();
+
+    private Repository<Person, Long> repository;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        ProxyFactory factory = new ProxyFactory(new InMemoryRepository<Person, Long>());
+        factory.addAdvice(new RepositoryMetricsInterceptor(metrics));
+        repository = (Repository<Person, Long>) factory.getProxy();
+    }
+
+    @Test
+    public void recordsCallsAndRows() {
+        repository.store(new Person(1L));
+        repository.store(new Person(2L));
+        repository.findAll();
+        repository.find(1L);
+        repository.find(3L);
+
+        OperationMetrics store = metrics.getOperationMetrics(REPOSITORY, "store");
+        OperationMetrics findAll = metrics.getOperationMetrics(REPOSITORY, "findAll");
+        OperationMetrics find = metrics.getOperationMetrics(REPOSITORY, "find");
+        assertEquals(2, store.getCallCount());
+        assertEquals(1, findAll.getCallCount());
+        assertEquals(2, findAll.getRowCount());
+        assertEquals(2, find.getCallCount());
+        assertEquals(1, find.getRowCount());
+    }
+
+    @Test
+    public void recordsErrors() {
+        try {
+            repository.find(null);
+            fail();
+        } catch (NullPointerException e) {
+            // expected
+        }
+
+        OperationMetrics find = metrics.getOperationMetrics(REPOSITORY, "find");
+        assertEquals(1, find.getCallCount());
+        assertEquals(1, find.getErrorCount());
+    }
+
+    private static class Person extends AbstractEntity<Long> {
+
+        private final Long id;
+
+        Person(Long id) {
+            this.id = id;
+        }
+
+        public Long getId() {
+            return id;
+        }
+    }
+}
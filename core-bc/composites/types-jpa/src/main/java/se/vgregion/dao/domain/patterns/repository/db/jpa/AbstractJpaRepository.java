@@ -26,10 +26,14 @@ import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.lang.reflect.TypeVariable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.persistence.EntityManager;
 import javax.persistence.NoResultException;
@@ -38,8 +42,11 @@ import javax.persistence.Query;
 
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.ClassUtils;
 
 import se.vgregion.dao.domain.patterns.entity.Entity;
+import se.vgregion.dao.domain.patterns.repository.Page;
+import se.vgregion.dao.domain.patterns.repository.PageRequest;
 import se.vgregion.dao.domain.patterns.repository.db.DatabaseRepository;
 
 /**
@@ -59,6 +66,13 @@ import se.vgregion.dao.domain.patterns.repository.db.DatabaseRepository;
 public abstract class AbstractJpaRepository<T extends Entity<ID>, ID extends Serializable, PK extends Serializable>
 implements JpaRepository<T, ID, PK> {
 
+    private static final int DEFAULT_BATCH_SIZE = 50;
+
+    private static final int DEFAULT_MAX_IN_LIST_SIZE = 500;
+
+    private static final boolean CURSOR_SUPPORTED = ClassUtils.isPresent("org.hibernate.ejb.HibernateQuery",
+            AbstractJpaRepository.class.getClassLoader());
+
     /**
      * Entity manager ref.
      */
@@ -67,8 +81,65 @@ implements JpaRepository<T, ID, PK> {
 
     private Class<? extends T> type;
 
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int maxInListSize = DEFAULT_MAX_IN_LIST_SIZE;
+
+    private QueryResultCache queryResultCache;
+
+    /**
+     * The JPQL of the queries generated by this repository, keyed by their shape. Each statement is built and its
+     * attribute names validated once, and is then handed to the provider as the same string every time, so that
+     * the query plan cache of the provider can skip parsing it.
+     */
+    private final ConcurrentMap<String, String> qlStrings = new ConcurrentHashMap<String, String>();
+
     public void setType(Class<? extends T> type) {
         this.type = type;
+        qlStrings.clear();
+    }
+
+    /**
+     * The number of entities written by the bulk operations before the persistence context is flushed and cleared.
+     * Should match the <code>hibernate.jdbc.batch_size</code> of the persistence unit.
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * The maximum number of values bound to a single <code>IN</code> list. Lists that are longer are split over
+     * several statements. Must not exceed the parameter limit of the database.
+     */
+    public int getMaxInListSize() {
+        return maxInListSize;
+    }
+
+    public void setMaxInListSize(int maxInListSize) {
+        if (maxInListSize <= 0) {
+            throw new IllegalArgumentException("Maximum IN list size must be positive");
+        }
+        this.maxInListSize = maxInListSize;
+    }
+
+    /**
+     * The cache for the results of named queries, or <code>null</code> if results are not cached. All writes
+     * through this repository invalidate the cached results that depend on the entity type. Queries run in a
+     * read-write transaction do not use the cache.
+     */
+    public QueryResultCache getQueryResultCache() {
+        return queryResultCache;
+    }
+
+    public void setQueryResultCache(QueryResultCache queryResultCache) {
+        this.queryResultCache = queryResultCache;
     }
 
     /**
@@ -193,7 +264,11 @@ implements JpaRepository<T, ID, PK> {
     @SuppressWarnings("unchecked")
     @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public List<T> findAll() {
-        Query query = entityManager.createQuery("select o from " + type.getSimpleName() + " o");
+        String qlString = qlStrings.get("findAll");
+        if (qlString == null) {
+            qlString = cache("findAll", "select o from " + metadata().getEntityName() + " o");
+        }
+        Query query = entityManager.createQuery(qlString);
         return query.getResultList();
     }
 
@@ -241,11 +316,19 @@ implements JpaRepository<T, ID, PK> {
     @SuppressWarnings("unchecked")
     @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public List<T> findByNamedQuery(String queryName, Map<String, ? extends Object> args) {
+        QueryResultCache.Lookup lookup = lookupQueryResult(queryName, args, false);
+        if (lookup != null && lookup.isHit()) {
+            return new ArrayList<T>((List<T>) lookup.getResult());
+        }
         Query namedQuery = entityManager.createNamedQuery(queryName);
         for (Map.Entry<String, ? extends Object> parameter : args.entrySet()) {
             namedQuery.setParameter(parameter.getKey(), parameter.getValue());
         }
-        return namedQuery.getResultList();
+        List<T> result = namedQuery.getResultList();
+        if (lookup != null) {
+            lookup.store(new ArrayList<T>(result));
+        }
+        return result;
     }
 
     /**
@@ -254,20 +337,33 @@ implements JpaRepository<T, ID, PK> {
     @SuppressWarnings("unchecked")
     @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public List<T> findByNamedQuery(String queryName, Object[] args) {
+        QueryResultCache.Lookup lookup = lookupQueryResult(queryName, args, false);
+        if (lookup != null && lookup.isHit()) {
+            return new ArrayList<T>((List<T>) lookup.getResult());
+        }
         Query namedQuery = entityManager.createNamedQuery(queryName);
         if (args != null) {
             for (int i = 0; i < args.length; i++) {
                 namedQuery.setParameter(i + 1, args[i]);
             }
         }
-        return namedQuery.getResultList();
+        List<T> result = namedQuery.getResultList();
+        if (lookup != null) {
+            lookup.store(new ArrayList<T>(result));
+        }
+        return result;
     }
 
     /**
      * {@inheritDoc}
      */
     @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    @SuppressWarnings("unchecked")
     public T findInstanceByNamedQuery(String queryName, Object[] args) {
+        QueryResultCache.Lookup lookup = lookupQueryResult(queryName, args, true);
+        if (lookup != null && lookup.isHit()) {
+            return (T) lookup.getResult();
+        }
         Query namedQuery = entityManager.createNamedQuery(queryName);
         if (args != null) {
             int position = 1;
@@ -278,20 +374,28 @@ implements JpaRepository<T, ID, PK> {
             }
         }
 
+        T result;
         try {
-            @SuppressWarnings("unchecked")
-            T result = (T) namedQuery.getSingleResult();
-            return result;
+            result = (T) namedQuery.getSingleResult();
         } catch (NoResultException nre) {
-            return null;
+            result = null;
         }
+        if (lookup != null) {
+            lookup.store(result);
+        }
+        return result;
     }
 
     /**
      * {@inheritDoc}
      */
     @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    @SuppressWarnings("unchecked")
     public T findInstanceByNamedQuery(String queryName, Map<String, ? extends Object> args) {
+        QueryResultCache.Lookup lookup = lookupQueryResult(queryName, args, true);
+        if (lookup != null && lookup.isHit()) {
+            return (T) lookup.getResult();
+        }
         Query namedQuery = entityManager.createNamedQuery(queryName);
         if (args != null) {
             for (Map.Entry<String, ? extends Object> entry : args.entrySet()) {
@@ -300,26 +404,217 @@ implements JpaRepository<T, ID, PK> {
                 namedQuery.setParameter(entry.getKey(), entry.getValue());
             }
         }
+        T result;
         try {
-            @SuppressWarnings("unchecked")
-            T result = (T) namedQuery.getSingleResult();
-            return result;
+            result = (T) namedQuery.getSingleResult();
         } catch (NoResultException nre) {
+            result = null;
+        }
+        if (lookup != null) {
+            lookup.store(result);
+        }
+        return result;
+    }
+
+    private QueryResultCache.Lookup lookupQueryResult(String queryName, Object[] args, boolean single) {
+        if (queryResultCache == null || !queryResultCache.isCached(queryName)) {
             return null;
         }
+        return queryResultCache.lookup(queryName, args == null ? null : Arrays.asList(args.clone()), single);
+    }
+
+    private QueryResultCache.Lookup lookupQueryResult(String queryName, Map<String, ? extends Object> args,
+            boolean single) {
+        if (queryResultCache == null || !queryResultCache.isCached(queryName)) {
+            return null;
+        }
+        return queryResultCache.lookup(queryName, args == null ? null : new HashMap<String, Object>(args), single);
+    }
+
+    private void invalidateQueryResults(Class<?> entityType) {
+        if (queryResultCache != null) {
+            queryResultCache.invalidate(entityType);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Iterable<T> iterateAll(int fetchSize) {
+        String firstQlString = qlStrings.get("iterateAll:first");
+        String nextQlString = qlStrings.get("iterateAll:next");
+        if (firstQlString == null || nextQlString == null) {
+            String id = "o." + requireIdAttribute();
+            String select = "select o, " + id + " from " + metadata().getEntityName() + " o";
+            firstQlString = cache("iterateAll:first", select + " order by " + id);
+            nextQlString = cache("iterateAll:next", select + " where " + id + " > :lastId order by " + id);
+        }
+        return new ChunkedResults<T>(entityManager, firstQlString, nextQlString, fetchSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Iterable<T> iterateByQuery(final String qlString, final Object[] args, int fetchSize) {
+        requireCursorSupport();
+        return new CursorResults<T>(entityManager, new CursorResults.QueryFactory() {
+            public Query createQuery() {
+                return bind(entityManager.createQuery(qlString), args);
+            }
+        }, fetchSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Iterable<T> iterateByNamedQuery(final String queryName, final Object[] args, int fetchSize) {
+        requireCursorSupport();
+        return new CursorResults<T>(entityManager, new CursorResults.QueryFactory() {
+            public Query createQuery() {
+                return bind(entityManager.createNamedQuery(queryName), args);
+            }
+        }, fetchSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Iterable<T> iterateByNamedQuery(final String queryName, final Map<String, ? extends Object> args,
+            int fetchSize) {
+        requireCursorSupport();
+        return new CursorResults<T>(entityManager, new CursorResults.QueryFactory() {
+            public Query createQuery() {
+                return bind(entityManager.createNamedQuery(queryName), args);
+            }
+        }, fetchSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Keyset pages are read with a seek predicate on the sort attribute and the <code>@Id</code> attribute, which
+     * an index on these columns can answer without reading the preceding rows.
+     */
+    @SuppressWarnings("unchecked")
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public Page<T> findPage(PageRequest request) {
+        boolean seek = request.isKeyset() && !request.isFirst();
+        String key = "findPage:" + request.getSortAttribute() + ":" + request.isAscending() + ":" + seek;
+        String qlString = qlStrings.get(key);
+        if (qlString == null) {
+            qlString = cache(key, pageQlString(request.getSortAttribute(), request.isAscending(), seek));
+        }
+
+        Query query = entityManager.createQuery(qlString);
+        if (seek) {
+            query.setParameter("lastId", request.getLastId());
+            if (request.getSortAttribute() != null) {
+                query.setParameter("lastValue", request.getLastSortValue());
+            }
+        }
+        query.setFirstResult(request.getOffset());
+        // one more than needed, to know whether there is a next page
+        query.setMaxResults(request.getSize() + 1);
+        List<Object[]> rows = query.getResultList();
+
+        int size = Math.min(rows.size(), request.getSize());
+        List<T> content = new ArrayList<T>(size);
+        for (int i = 0; i < size; i++) {
+            content.add((T) rows.get(i)[0]);
+        }
+        PageRequest next = null;
+        if (rows.size() > request.getSize()) {
+            Object[] last = rows.get(size - 1);
+            next = request.next(last[1], last[2]);
+        }
+        return new Page<T>(content, next);
+    }
+
+    private String pageQlString(String sortAttribute, boolean ascending, boolean seek) {
+        String id = "o." + requireIdAttribute();
+        String sort = sortAttribute == null ? id : "o." + metadata().checkAttribute(sortAttribute);
+        String direction = ascending ? " asc" : " desc";
+        String after = ascending ? " > " : " < ";
+
+        StringBuilder qlString = new StringBuilder("select o, ").append(sort).append(", ").append(id).append(
+                " from ").append(metadata().getEntityName()).append(" o");
+        if (seek) {
+            if (sortAttribute == null) {
+                qlString.append(" where ").append(id).append(after).append(":lastId");
+            } else {
+                qlString.append(" where ").append(sort).append(after).append(":lastValue or (").append(sort).append(
+                        " = :lastValue and ").append(id).append(after).append(":lastId)");
+            }
+        }
+        qlString.append(" order by ").append(sort).append(direction);
+        if (sortAttribute != null) {
+            qlString.append(", ").append(id).append(direction);
+        }
+        return qlString.toString();
+    }
+
+    private EntityMetadata metadata() {
+        return EntityMetadata.of(type);
+    }
+
+    private String cache(String key, String qlString) {
+        qlStrings.put(key, qlString);
+        return qlString;
+    }
+
+    private String requireIdAttribute() {
+        String idAttribute = metadata().getIdAttribute();
+        if (idAttribute == null) {
+            throw new UnsupportedOperationException("A simple @Id attribute is required in " + type.getName());
+        }
+        return idAttribute;
+    }
+
+    private static void requireCursorSupport() {
+        if (!CURSOR_SUPPORTED) {
+            throw new UnsupportedOperationException("Iterating over query results requires Hibernate");
+        }
+    }
+
+    private static Query bind(Query query, Object[] args) {
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                query.setParameter(i + 1, args[i]);
+            }
+        }
+        return query;
+    }
+
+    private static Query bind(Query query, Map<String, ? extends Object> args) {
+        if (args != null) {
+            for (Map.Entry<String, ? extends Object> parameter : args.entrySet()) {
+                query.setParameter(parameter.getKey(), parameter.getValue());
+            }
+        }
+        return query;
     }
 
     /**
      * {@inheritDoc}
+     * 
+     * @throws IllegalArgumentException
+     *             if <code>attributeName</code> is not a persistent attribute of the entity
      */
     @SuppressWarnings("unchecked")
     @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
     public Collection<T> findByAttribute(String attributeName, Object value) {
+        String key = "findByAttribute:" + attributeName;
+        String qlString = qlStrings.get(key);
+        if (qlString == null) {
+            qlString = cache(key, "select e from " + metadata().getEntityName() + " e where e."
+                    + metadata().checkAttribute(attributeName) + " = :attr");
+        }
         try {
-            return entityManager
-            .createQuery(
-                    "select e from " + type.getSimpleName() + " e where e." + attributeName + " = :attr")
-                    .setParameter("attr", value).getResultList();
+            return entityManager.createQuery(qlString).setParameter("attr", value).getResultList();
         } catch (NoResultException e) {
             return null;
         }
@@ -333,6 +628,61 @@ implements JpaRepository<T, ID, PK> {
         return entityManager.find(type, pk);
     }
 
+    /**
+     * {@inheritDoc}
+     * 
+     * The ID of an entity is not necessarily its primary key, so this implementation finds each entity with
+     * {@link #find(Serializable)}. Subclasses where the ID is the primary key should use
+     * {@link #findAllByPrimaryKey(Collection)} instead.
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public List<T> findAllById(Collection<ID> ids) {
+        List<T> result = new ArrayList<T>(ids.size());
+        for (ID id : ids) {
+            T entity = find(id);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Transactional(propagation = Propagation.SUPPORTS, readOnly = true)
+    public List<T> findAllByPrimaryKey(Collection<? extends PK> primaryKeys) {
+        Map<Object, T> found = new HashMap<Object, T>();
+        List<PK> chunk = new ArrayList<PK>(Math.min(primaryKeys.size(), maxInListSize));
+        for (PK pk : new LinkedHashSet<PK>(primaryKeys)) {
+            chunk.add(pk);
+            if (chunk.size() == maxInListSize) {
+                findChunk(chunk, found);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            findChunk(chunk, found);
+        }
+        List<T> result = new ArrayList<T>(primaryKeys.size());
+        for (PK pk : primaryKeys) {
+            T entity = found.get(pk);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void findChunk(List<PK> primaryKeys, Map<Object, T> found) {
+        String qlString = inListQlString("select o, o." + requireIdAttribute(), primaryKeys.size());
+        List<Object[]> rows = bind(entityManager.createQuery(qlString), primaryKeys.toArray()).getResultList();
+        for (Object[] row : rows) {
+            found.put(row[1], (T) row[0]);
+        }
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -350,6 +700,7 @@ implements JpaRepository<T, ID, PK> {
      */
     @Transactional(propagation = Propagation.MANDATORY)
     public T persist(T entity) {
+        invalidateQueryResults(entity.getClass());
         entityManager.persist(entity);
         return entity;
     }
@@ -371,6 +722,7 @@ implements JpaRepository<T, ID, PK> {
      */
     @Transactional(propagation = Propagation.MANDATORY)
     public void remove(T entity) {
+        invalidateQueryResults(entity.getClass());
         entityManager.remove(entity);
     }
 
@@ -381,6 +733,7 @@ implements JpaRepository<T, ID, PK> {
      */
     @Transactional(propagation = Propagation.MANDATORY)
     public void remove(ID id) {
+        invalidateQueryResults(type);
         T entity = find(id);
         entityManager.remove(entity);
     }
@@ -392,6 +745,7 @@ implements JpaRepository<T, ID, PK> {
      */
     @Transactional(propagation = Propagation.MANDATORY)
     public void removeByPrimaryKey(PK pk) {
+        invalidateQueryResults(type);
         T entity = findByPrimaryKey(pk);
         entityManager.remove(entity);
     }
@@ -403,17 +757,27 @@ implements JpaRepository<T, ID, PK> {
      */
     @Transactional(propagation = Propagation.MANDATORY)
     public T merge(T entity) {
+        invalidateQueryResults(entity.getClass());
         return entityManager.merge(entity);
     }
 
     /**
      * {@inheritDoc}
      * 
+     * Whether the entity is new is decided from its mapping where possible: an entity without ID, or with a
+     * <code>null</code> <code>@Version</code>, is new, and an entity with a generated ID that is set is not. Only
+     * entities with an assigned ID and no version are looked up in the database.
+     * 
      * @throws {@link IllegalTransactionStateException} if the method is invoked without an existing transaction.
      */
     @Transactional(propagation = Propagation.MANDATORY)
     public T store(T entity) {
-        if (entity.getId() == null || find(entity.getId()) == null) {
+        invalidateQueryResults(entity.getClass());
+        Boolean isNew = isNew(entity);
+        if (isNew == null) {
+            isNew = find(entity.getId()) == null;
+        }
+        if (isNew) {
             entityManager.persist(entity);
             return entity;
         } else {
@@ -421,6 +785,171 @@ implements JpaRepository<T, ID, PK> {
         }
     }
 
+    /**
+     * Decide from the mapping of <code>entity</code> whether it has been stored before.
+     * 
+     * @return true if the entity is new, false if it has been stored, or <code>null</code> if it can not be told
+     *         without asking the database
+     */
+    private Boolean isNew(T entity) {
+        if (entity.getId() == null) {
+            return Boolean.TRUE;
+        }
+        EntityMetadata metadata = EntityMetadata.of(entity.getClass());
+        if (metadata.isVersioned()) {
+            return metadata.getVersion(entity) == null;
+        }
+        if (metadata.isIdGenerated()) {
+            return Boolean.FALSE;
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws {@link IllegalTransactionStateException} if the method is invoked without an existing transaction.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void persistAll(Iterable<? extends T> entities) {
+        invalidateQueryResults(type);
+        int count = 0;
+        for (T entity : entities) {
+            entityManager.persist(entity);
+            count = endOfBatch(count);
+        }
+        flushAndClear();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws {@link IllegalTransactionStateException} if the method is invoked without an existing transaction.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void mergeAll(Iterable<? extends T> entities) {
+        invalidateQueryResults(type);
+        int count = 0;
+        for (T entity : entities) {
+            entityManager.merge(entity);
+            count = endOfBatch(count);
+        }
+        flushAndClear();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws {@link IllegalTransactionStateException} if the method is invoked without an existing transaction.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void storeAll(Iterable<? extends T> entities) {
+        invalidateQueryResults(type);
+        int count = 0;
+        for (T entity : entities) {
+            if (Boolean.TRUE.equals(isNew(entity))) {
+                entityManager.persist(entity);
+            } else {
+                entityManager.merge(entity);
+            }
+            count = endOfBatch(count);
+        }
+        flushAndClear();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws {@link IllegalTransactionStateException} if the method is invoked without an existing transaction.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int removeAllByPrimaryKey(Collection<? extends PK> primaryKeys) {
+        if (primaryKeys.isEmpty()) {
+            return 0;
+        }
+        invalidateQueryResults(type);
+        entityManager.flush();
+        int removed = 0;
+        List<PK> chunk = new ArrayList<PK>(Math.min(primaryKeys.size(), maxInListSize));
+        for (PK pk : primaryKeys) {
+            chunk.add(pk);
+            if (chunk.size() == maxInListSize) {
+                removed += removeChunk(chunk);
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            removed += removeChunk(chunk);
+        }
+        entityManager.clear();
+        return removed;
+    }
+
+    private int removeChunk(List<PK> primaryKeys) {
+        String qlString = inListQlString("delete", primaryKeys.size());
+        return bind(entityManager.createQuery(qlString), primaryKeys.toArray()).executeUpdate();
+    }
+
+    /**
+     * @return the statement <code>clause</code> restricted to the entities whose <code>@Id</code> is in a list of
+     *         <code>size</code> positional parameters
+     */
+    private String inListQlString(String clause, int size) {
+        String key = clause + ":" + size;
+        String qlString = qlStrings.get(key);
+        if (qlString == null) {
+            StringBuilder in = new StringBuilder(clause).append(" from ").append(metadata().getEntityName()).append(
+                    " o where o.").append(requireIdAttribute()).append(" in (");
+            for (int i = 1; i <= size; i++) {
+                in.append(i == 1 ? "?" : ", ?").append(i);
+            }
+            qlString = cache(key, in.append(')').toString());
+        }
+        return qlString;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws {@link IllegalTransactionStateException} if the method is invoked without an existing transaction.
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public int removeByAttribute(String attributeName, Object value) {
+        invalidateQueryResults(type);
+        String key = "removeByAttribute:" + attributeName + (value == null ? ":null" : "");
+        String qlString = qlStrings.get(key);
+        if (qlString == null) {
+            qlString = cache(key, "delete from " + metadata().getEntityName() + " o where o."
+                    + metadata().checkAttribute(attributeName) + (value == null ? " is null" : " = :attr"));
+        }
+        entityManager.flush();
+        Query query = entityManager.createQuery(qlString);
+        if (value != null) {
+            query.setParameter("attr", value);
+        }
+        int removed = query.executeUpdate();
+        entityManager.clear();
+        return removed;
+    }
+
+    /**
+     * Flush and clear the persistence context when a batch is complete.
+     * 
+     * @return the number of entities in the current batch
+     */
+    private int endOfBatch(int count) {
+        if (++count < batchSize) {
+            return count;
+        }
+        flushAndClear();
+        return 0;
+    }
+
+    private void flushAndClear() {
+        entityManager.flush();
+        entityManager.clear();
+    }
+
     /**
      * {@inheritDoc}
      */
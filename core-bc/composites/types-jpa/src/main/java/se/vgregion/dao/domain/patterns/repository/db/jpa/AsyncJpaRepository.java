@@ -0,0 +1,190 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.db.jpa;
+
+import java.io.Serializable;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+import se.vgregion.dao.domain.patterns.repository.ExecutorAsyncRepository;
+
+/**
+ * Asynchronous access to a {@link JpaRepository}.
+ * <p/>
+ * Transactions and entity managers are bound to the thread that uses them, so an operation running on an executor
+ * thread can not take part in the transaction of the caller. Instead every operation runs in a transaction of its
+ * own on the executing thread, started through <code>transactionManager</code>: a read-only transaction for
+ * lookups and a read-write transaction for modifications. As a consequence an operation does not see changes the
+ * caller has not committed yet, and the entities it returns are detached.
+ * 
+ * @param <T>
+ *            The Entity Type
+ * @param <ID>
+ *            The ID of the Entity
+ * @param <PK>
+ *            The type of the primary key
+ */
+public class AsyncJpaRepository<T extends Entity<ID>, ID extends Serializable, PK extends Serializable> extends
+        ExecutorAsyncRepository<T, ID> {
+
+    private final JpaRepository<T, ID, PK> repository;
+
+    private final TransactionTemplate readTemplate;
+
+    private final TransactionTemplate writeTemplate;
+
+    /**
+     * @param repository
+     *            the repository to run the operations on
+     * @param transactionManager
+     *            the transaction manager used for the transactions of the operations
+     * @param executor
+     *            the executor to run the operations with
+     */
+    public AsyncJpaRepository(JpaRepository<T, ID, PK> repository, PlatformTransactionManager transactionManager,
+            ExecutorService executor) {
+        super(repository, executor);
+        this.repository = repository;
+        this.readTemplate = new TransactionTemplate(transactionManager);
+        this.readTemplate.setReadOnly(true);
+        this.writeTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    /**
+     * @see JpaRepository#findByPrimaryKey(Serializable)
+     */
+    public Future<T> findByPrimaryKey(final PK pk) {
+        return submit(new Callable<T>() {
+            public T call() {
+                return repository.findByPrimaryKey(pk);
+            }
+        }, true);
+    }
+
+    /**
+     * @see JpaRepository#findByQuery(String, Object[])
+     */
+    public Future<Collection<T>> findByQuery(final String qlString, final Object[] args) {
+        return submit(new Callable<Collection<T>>() {
+            public Collection<T> call() {
+                return repository.findByQuery(qlString, args);
+            }
+        }, true);
+    }
+
+    /**
+     * @see JpaRepository#findByQuery(String, Map)
+     */
+    public Future<Collection<T>> findByQuery(final String qlString, final Map<String, ? extends Object> args) {
+        return submit(new Callable<Collection<T>>() {
+            public Collection<T> call() {
+                return repository.findByQuery(qlString, args);
+            }
+        }, true);
+    }
+
+    /**
+     * @see JpaRepository#findByAttribute(String, Object)
+     */
+    public Future<Collection<T>> findByAttribute(final String attributeName, final Object value) {
+        return submit(new Callable<Collection<T>>() {
+            public Collection<T> call() {
+                return repository.findByAttribute(attributeName, value);
+            }
+        }, true);
+    }
+
+    /**
+     * @see JpaRepository#findByNamedQuery(String, Map)
+     */
+    public Future<List<T>> findByNamedQuery(final String queryName, final Map<String, ? extends Object> args) {
+        return submit(new Callable<List<T>>() {
+            public List<T> call() {
+                return repository.findByNamedQuery(queryName, args);
+            }
+        }, true);
+    }
+
+    /**
+     * @see JpaRepository#findByNamedQuery(String, Object[])
+     */
+    public Future<List<T>> findByNamedQuery(final String queryName, final Object[] args) {
+        return submit(new Callable<List<T>>() {
+            public List<T> call() {
+                return repository.findByNamedQuery(queryName, args);
+            }
+        }, true);
+    }
+
+    /**
+     * @see JpaRepository#findInstanceByNamedQuery(String, Map)
+     */
+    public Future<T> findInstanceByNamedQuery(final String queryName, final Map<String, ? extends Object> args) {
+        return submit(new Callable<T>() {
+            public T call() {
+                return repository.findInstanceByNamedQuery(queryName, args);
+            }
+        }, true);
+    }
+
+    /**
+     * @see JpaRepository#findInstanceByNamedQuery(String, Object[])
+     */
+    public Future<T> findInstanceByNamedQuery(final String queryName, final Object[] args) {
+        return submit(new Callable<T>() {
+            public T call() {
+                return repository.findInstanceByNamedQuery(queryName, args);
+            }
+        }, true);
+    }
+
+    /**
+     * Run <code>task</code> on the executor, in a transaction of its own.
+     */
+    @Override
+    protected <V> Future<V> submit(final Callable<V> task, boolean readOnly) {
+        final TransactionTemplate template = readOnly ? readTemplate : writeTemplate;
+        return super.submit(new Callable<V>() {
+            public V call() {
+                return template.execute(new TransactionCallback<V>() {
+                    public V doInTransaction(TransactionStatus status) {
+                        try {
+                            return task.call();
+                        } catch (RuntimeException e) {
+                            throw e;
+                        } catch (Exception e) {
+                            throw new UndeclaredThrowableException(e);
+                        }
+                    }
+                });
+            }
+        }, readOnly);
+    }
+}
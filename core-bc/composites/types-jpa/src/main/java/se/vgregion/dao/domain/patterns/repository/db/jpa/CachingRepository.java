@@ -0,0 +1,426 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.db.jpa;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+import se.vgregion.dao.domain.patterns.repository.db.DatabaseRepository;
+import se.vgregion.dao.domain.patterns.repository.inmemory.BoundedCache;
+
+/**
+ * Read-through cache in front of a {@link DatabaseRepository}. Entities found by ID or by primary key are kept in
+ * a {@link BoundedCache} of at most <code>maximumSize</code> entities for at most <code>timeToLive</code>, so
+ * repeated lookups of the same entity do not go to the database. Queries and all other operations are passed on
+ * to the repository.
+ * <p/>
+ * The cache is only used outside transactions and within read-only transactions. Within a read-write transaction
+ * every lookup is passed on to the repository, so the caller gets the instance managed by its own persistence
+ * context and changes made to it are flushed as usual.
+ * <p/>
+ * The entities written by {@link #merge(Entity)}, {@link #store(Entity)} and the remove methods are evicted when
+ * the surrounding transaction completes, or at once when no transaction synchronization is active. Until then
+ * they are read from the repository, so the transaction that changes an entity always sees its own changes and
+ * other transactions keep seeing the committed state. An entity read by a concurrent transaction just before the
+ * commit may be cached again with its old state; the time to live bounds how long that state is served.
+ * <p/>
+ * Cached instances are shared between all readers and must not be modified. The cache is best suited
+ * for reference data that is read far more often than it is written.
+ * 
+ * @param <T>
+ *            The Entity Type
+ * @param <ID>
+ *            The ID of the Entity
+ * @param <PK>
+ *            The type of the primary key
+ */
+public class CachingRepository<T extends Entity<ID>, ID extends Serializable, PK extends Serializable> implements
+        DatabaseRepository<T, ID, PK> {
+
+    private final DatabaseRepository<T, ID, PK> repository;
+
+    private final long timeToLiveNanos;
+
+    private final BoundedCache<ID, Cached<T>> entities;
+
+    private final BoundedCache<PK, ID> idsByPrimaryKey;
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param repository
+     *            the repository to cache the entities of
+     * @param maximumSize
+     *            the maximum number of entities to cache
+     * @param timeToLive
+     *            how long an entity is cached after it was read
+     * @param unit
+     *            the unit of <code>timeToLive</code>
+     */
+    public CachingRepository(DatabaseRepository<T, ID, PK> repository, long maximumSize, long timeToLive,
+            TimeUnit unit) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("Time to live must be positive");
+        }
+        this.repository = repository;
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+        this.entities = new BoundedCache<ID, Cached<T>>(maximumSize);
+        this.idsByPrimaryKey = new BoundedCache<PK, ID>(maximumSize);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T find(ID id) {
+        if (!isCacheable()) {
+            return repository.find(id);
+        }
+        Invalidation invalidation = currentInvalidation();
+        if (invalidation != null && invalidation.ids.contains(id)) {
+            return repository.find(id);
+        }
+        T entity = cached(id);
+        if (entity == null) {
+            entity = repository.find(id);
+            if (entity != null) {
+                cache(entity);
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Only the entities that are not cached are read from the repository.
+     */
+    public List<T> findAllById(Collection<ID> ids) {
+        if (!isCacheable()) {
+            return repository.findAllById(ids);
+        }
+        Invalidation invalidation = currentInvalidation();
+        Map<ID, T> found = new HashMap<ID, T>();
+        List<ID> missing = new ArrayList<ID>();
+        for (ID id : ids) {
+            T entity = invalidation != null && invalidation.ids.contains(id) ? null : cached(id);
+            if (entity == null) {
+                missing.add(id);
+            } else {
+                found.put(id, entity);
+            }
+        }
+        if (!missing.isEmpty()) {
+            for (T entity : repository.findAllById(missing)) {
+                found.put(entity.getId(), entity);
+                if (invalidation == null || !invalidation.ids.contains(entity.getId())) {
+                    cache(entity);
+                }
+            }
+        }
+        List<T> result = new ArrayList<T>(ids.size());
+        for (ID id : ids) {
+            T entity = found.get(id);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T findByPrimaryKey(PK pk) {
+        if (!isCacheable()) {
+            return repository.findByPrimaryKey(pk);
+        }
+        Invalidation invalidation = currentInvalidation();
+        if (invalidation != null && invalidation.primaryKeys.contains(pk)) {
+            return repository.findByPrimaryKey(pk);
+        }
+        ID id = idsByPrimaryKey.get(pk);
+        T entity = null;
+        if (id != null && (invalidation == null || !invalidation.ids.contains(id))) {
+            entity = cached(id);
+        } else {
+            missCount.incrementAndGet();
+        }
+        if (entity == null) {
+            entity = repository.findByPrimaryKey(pk);
+            if (entity != null && (invalidation == null || !invalidation.ids.contains(entity.getId()))) {
+                cache(entity);
+                idsByPrimaryKey.put(pk, entity.getId());
+            }
+        }
+        return entity;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Collection<T> findAll() {
+        return repository.findAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean contains(T entity) {
+        return repository.contains(entity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void refresh(T entity) {
+        repository.refresh(entity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void flush() {
+        repository.flush();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T persist(T entity) {
+        T persisted = repository.persist(entity);
+        if (persisted.getId() != null) {
+            invalidate(persisted.getId(), null);
+        }
+        return persisted;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T merge(T entity) {
+        T merged = repository.merge(entity);
+        invalidate(merged.getId(), null);
+        return merged;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T store(T entity) {
+        T stored = repository.store(entity);
+        if (stored.getId() != null) {
+            invalidate(stored.getId(), null);
+        }
+        return stored;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(T entity) {
+        invalidate(entity.getId(), null);
+        repository.remove(entity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(ID id) {
+        invalidate(id, null);
+        repository.remove(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void removeByPrimaryKey(PK pk) {
+        invalidate(idsByPrimaryKey.peek(pk), pk);
+        repository.removeByPrimaryKey(pk);
+    }
+
+    /**
+     * Evict all entities from the cache.
+     */
+    public void invalidateAll() {
+        entities.invalidateAll();
+        idsByPrimaryKey.invalidateAll();
+    }
+
+    /**
+     * @return the number of entities currently cached
+     */
+    public int size() {
+        return entities.size();
+    }
+
+    /**
+     * @return the number of lookups by ID or primary key that were served from the cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of cacheable lookups by ID or primary key that went to the repository
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the ratio of hits to lookups, or 1.0 if there have been no lookups
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        return lookups == 0 ? 1.0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return the number of entities evicted to stay within the maximum size
+     */
+    public long getEvictionCount() {
+        return entities.getEvictionCount();
+    }
+
+    private T cached(ID id) {
+        Cached<T> cached = entities.get(id);
+        if (cached != null && System.nanoTime() - cached.expires < 0) {
+            hitCount.incrementAndGet();
+            return cached.entity;
+        }
+        if (cached != null) {
+            entities.remove(id);
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return true unless a read-write transaction is active, whose callers must get managed instances
+     */
+    private static boolean isCacheable() {
+        return !TransactionSynchronizationManager.isActualTransactionActive()
+                || TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    private void cache(T entity) {
+        entities.put(entity.getId(), new Cached<T>(entity, System.nanoTime() + timeToLiveNanos));
+    }
+
+    /**
+     * Evict the entity with <code>id</code> and/or <code>pk</code> when the current transaction completes.
+     */
+    private void invalidate(ID id, PK pk) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            evict(id, pk);
+            return;
+        }
+        Invalidation invalidation = currentInvalidation();
+        if (invalidation == null) {
+            invalidation = new Invalidation();
+            TransactionSynchronizationManager.bindResource(this, invalidation);
+            TransactionSynchronizationManager.registerSynchronization(invalidation);
+        }
+        if (id != null) {
+            invalidation.ids.add(id);
+        }
+        if (pk != null) {
+            invalidation.primaryKeys.add(pk);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Invalidation currentInvalidation() {
+        return (Invalidation) TransactionSynchronizationManager.getResource(this);
+    }
+
+    private void evict(ID id, PK pk) {
+        if (pk != null) {
+            ID mapped = idsByPrimaryKey.remove(pk);
+            if (mapped != null) {
+                entities.remove(mapped);
+            }
+        }
+        if (id != null) {
+            entities.remove(id);
+        }
+    }
+
+    /**
+     * An entity and the time it expires, in terms of {@link System#nanoTime()}.
+     */
+    private static class Cached<T> {
+
+        private final T entity;
+
+        private final long expires;
+
+        Cached(T entity, long expires) {
+            this.entity = entity;
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * The IDs and primary keys written in a transaction, which are evicted when it completes. It is bound to the
+     * transaction as a resource keyed by the repository, following it through suspension and resumption.
+     */
+    private class Invalidation extends TransactionSynchronizationAdapter {
+
+        private final Set<ID> ids = new HashSet<ID>();
+
+        private final Set<PK> primaryKeys = new HashSet<PK>();
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(CachingRepository.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(CachingRepository.this, this);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResource(CachingRepository.this);
+            for (PK pk : primaryKeys) {
+                evict(null, pk);
+            }
+            for (ID id : ids) {
+                evict(id, null);
+            }
+        }
+    }
+}
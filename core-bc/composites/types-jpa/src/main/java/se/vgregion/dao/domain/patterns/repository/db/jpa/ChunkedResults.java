@@ -0,0 +1,145 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.db.jpa;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * All instances of an entity, fetched from the database one chunk at a time while they are iterated.
+ * <p/>
+ * The chunks are read in ID order, and every chunk after the first seeks past the last ID of the previous one
+ * (<code>where o.id &gt; :lastId</code>), so an index on the ID answers each chunk without reading the preceding
+ * rows and rows inserted or removed between chunks never make the iteration skip or repeat an instance. The chunk
+ * size is passed to the JDBC driver as the fetch size. Before the next chunk is read the persistence context is
+ * cleared, so the entities that have already been iterated become detached and can be garbage collected; within a
+ * read-write transaction pending changes are flushed first. Memory use therefore depends on the chunk size only,
+ * not on the number of instances.
+ * <p/>
+ * Every chunk is a query of its own. Outside a transaction each of them runs in a persistence context of its own,
+ * within a transaction they run in the persistence context of the transaction that is active when the chunk is
+ * read.
+ * 
+ * @param <T>
+ *            The Entity Type
+ */
+class ChunkedResults<T> implements Iterable<T> {
+
+    static final String FETCH_SIZE_HINT = "org.hibernate.fetchSize";
+
+    private final EntityManager entityManager;
+
+    private final String firstQlString;
+
+    private final String nextQlString;
+
+    private final int chunkSize;
+
+    /**
+     * @param firstQlString
+     *            query selecting the instance and its ID, ordered by ID
+     * @param nextQlString
+     *            the same query restricted to the IDs after the <code>lastId</code> parameter
+     */
+    ChunkedResults(EntityManager entityManager, String firstQlString, String nextQlString, int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("Fetch size must be positive");
+        }
+        this.entityManager = entityManager;
+        this.firstQlString = firstQlString;
+        this.nextQlString = nextQlString;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Iterator<T> iterator() {
+        return new ChunkIterator();
+    }
+
+    private class ChunkIterator implements Iterator<T> {
+
+        private List<Object[]> chunk = Collections.emptyList();
+
+        private int index;
+
+        private Object lastId;
+
+        private boolean exhausted;
+
+        public boolean hasNext() {
+            if (index < chunk.size()) {
+                return true;
+            }
+            if (exhausted) {
+                return false;
+            }
+            fetch();
+            return index < chunk.size();
+        }
+
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return (T) chunk.get(index++)[0];
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @SuppressWarnings("unchecked")
+        private void fetch() {
+            Query query;
+            if (lastId == null) {
+                query = entityManager.createQuery(firstQlString);
+            } else {
+                detachConsumed();
+                query = entityManager.createQuery(nextQlString);
+                query.setParameter("lastId", lastId);
+            }
+            query.setMaxResults(chunkSize);
+            query.setHint(FETCH_SIZE_HINT, chunkSize);
+            chunk = query.getResultList();
+            index = 0;
+            if (!chunk.isEmpty()) {
+                lastId = chunk.get(chunk.size() - 1)[1];
+            }
+            exhausted = chunk.size() < chunkSize;
+        }
+
+        private void detachConsumed() {
+            if (TransactionSynchronizationManager.isActualTransactionActive()
+                    && !TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+                entityManager.flush();
+            }
+            entityManager.clear();
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.db.jpa;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import javax.persistence.EntityManager;
+import javax.persistence.Query;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.ejb.HibernateQuery;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Query results that are read through a forward-only database cursor while they are iterated.
+ * <p/>
+ * The query is executed once, as a Hibernate <code>ScrollableResults</code> with the fetch size passed to the JDBC
+ * driver, so the rows are read in the order the query defines and every row is read exactly once. After every
+ * <code>fetchSize</code> rows the persistence context is cleared, so the entities that have already been iterated
+ * become detached and can be garbage collected; within a read-write transaction pending changes are flushed
+ * first. Memory use therefore depends on the fetch size only, not on the size of the result.
+ * <p/>
+ * The cursor lives in the persistence context of a transaction, so each iterator must be created and consumed
+ * within the transaction of the caller. It is closed when it is exhausted, and at the latest before the
+ * transaction completes.
+ * 
+ * @param <T>
+ *            The Entity Type
+ */
+class CursorResults<T> implements Iterable<T> {
+
+    /**
+     * Creates the query to read, with its parameters bound.
+     */
+    interface QueryFactory {
+        Query createQuery();
+    }
+
+    private final EntityManager entityManager;
+
+    private final QueryFactory queryFactory;
+
+    private final int fetchSize;
+
+    CursorResults(EntityManager entityManager, QueryFactory queryFactory, int fetchSize) {
+        if (fetchSize <= 0) {
+            throw new IllegalArgumentException("Fetch size must be positive");
+        }
+        this.entityManager = entityManager;
+        this.queryFactory = queryFactory;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @throws IllegalStateException
+     *             if no transaction is active
+     * @throws UnsupportedOperationException
+     *             if the persistence provider is not Hibernate
+     */
+    public Iterator<T> iterator() {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("Query results must be iterated within a transaction");
+        }
+        Query query = queryFactory.createQuery();
+        if (!(query instanceof HibernateQuery)) {
+            throw new UnsupportedOperationException("Iterating over query results requires Hibernate, not "
+                    + query.getClass().getName());
+        }
+        org.hibernate.Query hibernateQuery = ((HibernateQuery) query).getHibernateQuery();
+        hibernateQuery.setFetchSize(fetchSize);
+        return new CursorIterator(hibernateQuery.scroll(ScrollMode.FORWARD_ONLY));
+    }
+
+    private class CursorIterator extends TransactionSynchronizationAdapter implements Iterator<T> {
+
+        private final ScrollableResults results;
+
+        private int consumed;
+
+        private boolean advanced;
+
+        private boolean closed;
+
+        CursorIterator(ScrollableResults results) {
+            this.results = results;
+            TransactionSynchronizationManager.registerSynchronization(this);
+        }
+
+        public boolean hasNext() {
+            if (closed) {
+                return false;
+            }
+            if (!advanced) {
+                if (consumed > 0 && consumed % fetchSize == 0) {
+                    detachConsumed();
+                }
+                if (!results.next()) {
+                    close();
+                    return false;
+                }
+                advanced = true;
+            }
+            return true;
+        }
+
+        @SuppressWarnings("unchecked")
+        public T next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            advanced = false;
+            consumed++;
+            return (T) results.get(0);
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void beforeCompletion() {
+            close();
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                results.close();
+            }
+        }
+
+        private void detachConsumed() {
+            if (!TransactionSynchronizationManager.isCurrentTransactionReadOnly()) {
+                entityManager.flush();
+            }
+            entityManager.clear();
+        }
+    }
+}
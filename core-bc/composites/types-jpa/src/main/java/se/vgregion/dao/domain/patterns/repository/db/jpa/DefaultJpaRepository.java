@@ -19,6 +19,8 @@
 package se.vgregion.dao.domain.patterns.repository.db.jpa;
 
 import java.io.Serializable;
+import java.util.Collection;
+import java.util.List;
 
 import se.vgregion.dao.domain.patterns.entity.Entity;
 
@@ -49,6 +51,14 @@ public class DefaultJpaRepository<T extends Entity<ID>, ID extends Serializable>
         return findByPrimaryKey(id);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public List<T> findAllById(Collection<ID> ids) {
+        return findAllByPrimaryKey(ids);
+    }
+
     /**
      * {@inheritDoc}
      */
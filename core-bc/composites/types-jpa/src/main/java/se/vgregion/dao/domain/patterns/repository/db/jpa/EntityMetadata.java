@@ -0,0 +1,212 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.db.jpa;
+
+import java.beans.Introspector;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Transient;
+import javax.persistence.Version;
+
+/**
+ * Mapping information about an entity class that is read from its JPA annotations once and then cached.
+ */
+final class EntityMetadata {
+
+    private static final ConcurrentMap<Class<?>, EntityMetadata> METADATA =
+            new ConcurrentHashMap<Class<?>, EntityMetadata>();
+
+    private final Class<?> type;
+
+    private final String entityName;
+
+    private final String idAttribute;
+
+    private final boolean idGenerated;
+
+    private final AccessibleObject version;
+
+    private final ConcurrentMap<String, Boolean> checkedAttributes = new ConcurrentHashMap<String, Boolean>();
+
+    private EntityMetadata(Class<?> type) {
+        this.type = type;
+        javax.persistence.Entity entity = type.getAnnotation(javax.persistence.Entity.class);
+        entityName = entity != null && entity.name().length() > 0 ? entity.name() : type.getSimpleName();
+        AccessibleObject id = findMember(type, Id.class);
+        idAttribute = id == null ? null : attributeName(id);
+        idGenerated = id != null && id.isAnnotationPresent(GeneratedValue.class);
+        version = findMember(type, Version.class);
+        if (version != null) {
+            version.setAccessible(true);
+        }
+    }
+
+    /**
+     * @return the metadata of <code>type</code>
+     */
+    static EntityMetadata of(Class<?> type) {
+        EntityMetadata metadata = METADATA.get(type);
+        if (metadata == null) {
+            metadata = new EntityMetadata(type);
+            METADATA.put(type, metadata);
+        }
+        return metadata;
+    }
+
+    /**
+     * @return the name of the entity in JPQL queries
+     */
+    String getEntityName() {
+        return entityName;
+    }
+
+    /**
+     * @return the name of the simple <code>@Id</code> attribute, or <code>null</code> if the entity has a composite
+     *         or no identifier
+     */
+    String getIdAttribute() {
+        return idAttribute;
+    }
+
+    /**
+     * @return true if the simple <code>@Id</code> is assigned by the provider through <code>@GeneratedValue</code>
+     */
+    boolean isIdGenerated() {
+        return idGenerated;
+    }
+
+    /**
+     * @return true if the entity has a <code>@Version</code> attribute
+     */
+    boolean isVersioned() {
+        return version != null;
+    }
+
+    /**
+     * @return the value of the <code>@Version</code> attribute of <code>entity</code>
+     */
+    Object getVersion(Object entity) {
+        try {
+            if (version instanceof Field) {
+                return ((Field) version).get(entity);
+            }
+            return ((Method) version).invoke(entity);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to read the version of " + entity, e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Unable to read the version of " + entity, e.getCause());
+        }
+    }
+
+    /**
+     * Check that <code>path</code> names a persistent attribute of the entity, or a path through its embedded and
+     * related entities such as <code>address.city</code>. The outcome is cached, so a path is only resolved once.
+     * Since only names of existing attributes pass, the path is safe to concatenate into a JPQL query.
+     * 
+     * @return <code>path</code>
+     * @throws IllegalArgumentException
+     *             if <code>path</code> is not an attribute of the entity
+     */
+    String checkAttribute(String path) {
+        if (path == null || path.length() == 0) {
+            throw new IllegalArgumentException("Attribute name must not be empty");
+        }
+        if (!checkedAttributes.containsKey(path)) {
+            Class<?> current = type;
+            for (String name : path.split("\\.", -1)) {
+                current = attributeType(current, name, path);
+            }
+            checkedAttributes.put(path, Boolean.TRUE);
+        }
+        return path;
+    }
+
+    private Class<?> attributeType(Class<?> owner, String name, String path) {
+        // basic values and collections have no attributes of their own
+        if (owner.isPrimitive() || owner.isArray() || owner.isEnum() || owner.getName().startsWith("java.")) {
+            throw new IllegalArgumentException("Attribute '" + path + "' can not be navigated in "
+                    + type.getName());
+        }
+        for (Class<?> c = owner; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (field.getName().equals(name) && isPersistent(field, field.getModifiers())) {
+                    return field.getType();
+                }
+            }
+        }
+        String suffix = name.length() == 0 ? "" : Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (String prefix : new String[] { "get", "is" }) {
+            try {
+                Method getter = owner.getMethod(prefix + suffix);
+                if (getter.getDeclaringClass() != Object.class && isPersistent(getter, getter.getModifiers())) {
+                    return getter.getReturnType();
+                }
+            } catch (NoSuchMethodException e) {
+                continue;
+            }
+        }
+        throw new IllegalArgumentException("Attribute '" + path + "' not found in " + type.getName());
+    }
+
+    private static boolean isPersistent(AccessibleObject member, int modifiers) {
+        return !Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)
+                && !member.isAnnotationPresent(Transient.class);
+    }
+
+    /**
+     * Find the field or getter annotated with <code>annotation</code>.
+     */
+    private static AccessibleObject findMember(Class<?> type, Class<? extends Annotation> annotation) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            for (Field field : c.getDeclaredFields()) {
+                if (field.isAnnotationPresent(annotation)) {
+                    return field;
+                }
+            }
+            for (Method method : c.getDeclaredMethods()) {
+                if (method.isAnnotationPresent(annotation) && method.getParameterTypes().length == 0) {
+                    return method;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String attributeName(AccessibleObject member) {
+        if (member instanceof Field) {
+            return ((Field) member).getName();
+        }
+        String getter = ((Method) member).getName();
+        if (getter.startsWith("get")) {
+            return Introspector.decapitalize(getter.substring(3));
+        } else if (getter.startsWith("is")) {
+            return Introspector.decapitalize(getter.substring(2));
+        }
+        return getter;
+    }
+}
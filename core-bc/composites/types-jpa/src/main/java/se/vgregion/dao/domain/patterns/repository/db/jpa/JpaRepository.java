@@ -24,6 +24,7 @@ import java.util.List;
 import java.util.Map;
 
 import se.vgregion.dao.domain.patterns.entity.Entity;
+import se.vgregion.dao.domain.patterns.repository.PagingRepository;
 import se.vgregion.dao.domain.patterns.repository.db.DatabaseRepository;
 
 /**
@@ -39,7 +40,7 @@ import se.vgregion.dao.domain.patterns.repository.db.DatabaseRepository;
  * @author Anders Asplund - <a href="http://www.callistaenterprise.se">Callista Enterprise</a>
  */
 public interface JpaRepository<T extends Entity<ID>, ID extends Serializable, PK extends Serializable> extends
-DatabaseRepository<T, ID, PK> {
+DatabaseRepository<T, ID, PK>, PagingRepository<T, ID> {
 
     /**
      * Clear the persistence context, causing all managed entities to become detached. Changes made to entities
@@ -55,6 +56,17 @@ DatabaseRepository<T, ID, PK> {
 
     public Collection<T> findByAttribute(String attributeName, Object value);
 
+    /**
+     * Find the instances of <code>T</code> with the given primary keys. The keys are split into chunks of
+     * {@link AbstractJpaRepository#getMaxInListSize()} that are each loaded with a single query. Instances that are
+     * already managed are returned as they are in the persistence context.
+     * 
+     * @param primaryKeys
+     *            the primary keys of the entities
+     * @return the entities found, in the order of <code>primaryKeys</code>; keys without an entity are left out
+     */
+    List<T> findAllByPrimaryKey(Collection<? extends PK> primaryKeys);
+
     /**
      * Find instances of <code>T</code> that match the criteria defined by query <code>queryName</code>.
      * <code>args</code> provide the values for any named parameters in the query identified by
@@ -104,4 +116,125 @@ DatabaseRepository<T, ID, PK> {
      */
     T findInstanceByNamedQuery(String queryName, Map<String, ? extends Object> args);
 
+    /**
+     * Persist many new entities. Every {@link AbstractJpaRepository#getBatchSize() batch size} entities the
+     * persistence context is flushed and cleared, so that memory use stays bounded and the inserts of a batch can be
+     * sent to the database together. All entities in the persistence context are detached afterwards, and changes
+     * that were not flushed before the call are written along with the batch.
+     * 
+     * @param entities
+     *            the entities to persist
+     */
+    void persistAll(Iterable<? extends T> entities);
+
+    /**
+     * Merge many entities, flushing and clearing the persistence context in batches as {@link #persistAll(Iterable)}.
+     * 
+     * @param entities
+     *            the entities to merge
+     */
+    void mergeAll(Iterable<? extends T> entities);
+
+    /**
+     * Store many entities, flushing and clearing the persistence context in batches as
+     * {@link #persistAll(Iterable)}. Entities that are new according to their mapping, see
+     * {@link AbstractJpaRepository#store(Entity)}, are persisted and all others are merged.
+     * 
+     * @param entities
+     *            the entities to store
+     */
+    void storeAll(Iterable<? extends T> entities);
+
+    /**
+     * Remove the entities with the given primary keys with bulk <code>DELETE</code> statements, without loading
+     * them. The keys are split into chunks of {@link AbstractJpaRepository#getMaxInListSize()} that are each removed
+     * with a single statement. Keys that do not exist are ignored.
+     * <p/>
+     * Bulk statements bypass the persistence context, so pending changes are flushed before the removal and the
+     * persistence context is cleared afterwards; all managed entities are detached. Cascades and callbacks that
+     * are configured in the mapping are not applied.
+     * 
+     * @param primaryKeys
+     *            the primary keys of the entities to remove
+     * @return the number of entities removed
+     */
+    int removeAllByPrimaryKey(Collection<? extends PK> primaryKeys);
+
+    /**
+     * Remove all entities where <code>attributeName</code> equals <code>value</code> with a single bulk
+     * <code>DELETE</code> statement, without loading them. The persistence context is flushed before and cleared
+     * after the removal as for {@link #removeAllByPrimaryKey(Collection)}.
+     * 
+     * @param attributeName
+     *            the attribute to match
+     * @param value
+     *            the value to match, may be <code>null</code>
+     * @return the number of entities removed
+     */
+    int removeByAttribute(String attributeName, Object value);
+
+    /**
+     * Iterate over all instances of <code>T</code>, ordered by ID, without loading them all into memory. The
+     * instances are read <code>fetchSize</code> at a time, each chunk seeking past the last ID of the previous one,
+     * and the persistence context is cleared before the next chunk is read, so instances already iterated over are
+     * detached. Instances inserted or removed while iterating never make the iteration skip or repeat another
+     * instance. The iteration may span several transactions, or none; each chunk is read in the transaction that
+     * is active when it is read.
+     * 
+     * @param fetchSize
+     *            the number of instances to read at a time
+     * @return the instances of <code>T</code>, read while iterating
+     */
+    Iterable<T> iterateAll(int fetchSize);
+
+    /**
+     * Iterate over the result of a query without loading it all into memory. The query is executed once and its
+     * rows are read through a forward-only database cursor, <code>fetchSize</code> at a time, in the order the
+     * query defines. The persistence context is cleared after every <code>fetchSize</code> instances, so instances
+     * already iterated over are detached.
+     * <p/>
+     * The cursor belongs to the transaction of the caller: the result must be iterated within the same transaction
+     * it was created in, and the cursor is closed when the transaction completes. Requires Hibernate as the
+     * persistence provider.
+     * 
+     * @param qlString
+     *            the query to execute
+     * @param args
+     *            the positional values used in the query
+     * @param fetchSize
+     *            the number of instances to read at a time
+     * @return the matching instances of <code>T</code>, read while iterating
+     * @throws IllegalStateException
+     *             when iterated outside a transaction
+     */
+    Iterable<T> iterateByQuery(String qlString, Object[] args, int fetchSize);
+
+    /**
+     * Iterate over the result of a named query without loading it all into memory, as
+     * {@link #iterateByQuery(String, Object[], int)}.
+     * 
+     * @param queryName
+     *            the named query to execute
+     * @param args
+     *            the positional values used in the query
+     * @param fetchSize
+     *            the number of instances to read at a time
+     * @return the matching instances of <code>T</code>, read while iterating
+     */
+    Iterable<T> iterateByNamedQuery(String queryName, Object[] args, int fetchSize);
+
+    /**
+     * Iterate over the result of a named query without loading it all into memory, as
+     * {@link #iterateByQuery(String, Object[], int)}.
+     * 
+     * @param queryName
+     *            the named query to execute
+     * @param args
+     *            the values for the named parameters of the query
+     * @param fetchSize
+     *            the number of instances to read at a time
+     * @return the matching instances of <code>T</code>, read while iterating
+     */
+    Iterable<T> iterateByNamedQuery(String queryName, Map<String, ? extends Object> args, int fetchSize);
+
 }
@@ -0,0 +1,372 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.db.jpa;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import se.vgregion.dao.domain.patterns.repository.inmemory.BoundedCache;
+
+/**
+ * Cache for the results of named queries, shared by the {@link AbstractJpaRepository repositories} it is set on.
+ * <p/>
+ * Caching is opt-in per query: {@link #cacheQuery(String, long, TimeUnit, Class...)} declares how long the results
+ * of a query are kept and which entity types they depend on. Results are keyed by the query name and the query
+ * arguments, so the arguments must implement <code>equals</code> and <code>hashCode</code>.
+ * <p/>
+ * Every entity type has a generation counter. A result remembers the generations of the types it depends on,
+ * read before the query was run, and is only served while none of them has changed. A repository that writes an
+ * entity calls {@link #invalidate(Class)}, which advances the generation of the entity type and its super types
+ * when the transaction completes. Invalidation is therefore a counter increment, however many results depend on
+ * the type.
+ * <p/>
+ * The cache is only used outside transactions and in read-only transactions. A read-write transaction must get
+ * managed instances that it can change, and the persistence provider flushes changes to managed entities before
+ * a query runs without the repository seeing them, so its results are neither served from nor stored in the
+ * cache. Until an invalidating transaction completes, queries in it that depend on the written types bypass the
+ * cache as well.
+ * <p/>
+ * Cached entities are shared between all callers and should be treated as read-only.
+ */
+public class QueryResultCache {
+
+    private final BoundedCache<Key, Result> results;
+
+    private final ConcurrentMap<String, CachedQuery> queries = new ConcurrentHashMap<String, CachedQuery>();
+
+    private final ConcurrentMap<Class<?>, AtomicLong> generations = new ConcurrentHashMap<Class<?>, AtomicLong>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param maximumSize
+     *            the maximum number of query results to cache
+     */
+    public QueryResultCache(long maximumSize) {
+        results = new BoundedCache<Key, Result>(maximumSize);
+    }
+
+    /**
+     * Cache the results of the named query <code>queryName</code>.
+     * 
+     * @param queryName
+     *            the name of the query
+     * @param timeToLive
+     *            how long a result is cached after the query was run
+     * @param unit
+     *            the unit of <code>timeToLive</code>
+     * @param entityTypes
+     *            the entity types whose changes invalidate the results of the query
+     */
+    public void cacheQuery(String queryName, long timeToLive, TimeUnit unit, Class<?>... entityTypes) {
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("Time to live must be positive");
+        }
+        if (entityTypes.length == 0) {
+            throw new IllegalArgumentException("The entity types of query '" + queryName + "' must be given");
+        }
+        queries.put(queryName, new CachedQuery(unit.toNanos(timeToLive), entityTypes.clone()));
+    }
+
+    /**
+     * @return true if the results of the named query <code>queryName</code> are cached
+     */
+    public boolean isCached(String queryName) {
+        return queries.containsKey(queryName);
+    }
+
+    /**
+     * Invalidate all results that depend on <code>entityType</code> or one of its super types. Within a
+     * transaction the results are invalidated when it completes, otherwise at once.
+     * 
+     * @param entityType
+     *            the type of the written entities
+     */
+    public void invalidate(Class<?> entityType) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            advance(entityType);
+            return;
+        }
+        Invalidation invalidation = currentInvalidation();
+        if (invalidation == null) {
+            invalidation = new Invalidation();
+            TransactionSynchronizationManager.bindResource(this, invalidation);
+            TransactionSynchronizationManager.registerSynchronization(invalidation);
+        }
+        for (Class<?> c = entityType; c != null && c != Object.class; c = c.getSuperclass()) {
+            invalidation.entityTypes.add(c);
+        }
+    }
+
+    /**
+     * Evict all results from the cache.
+     */
+    public void invalidateAll() {
+        results.invalidateAll();
+    }
+
+    /**
+     * @return the number of query results currently cached
+     */
+    public int size() {
+        return results.size();
+    }
+
+    /**
+     * @return the number of queries that were answered from the cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return the number of cached queries that had to be run
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return the ratio of hits to lookups, or 1.0 if there have been no lookups
+     */
+    public double getHitRate() {
+        long hits = hitCount.get();
+        long lookups = hits + missCount.get();
+        return lookups == 0 ? 1.0 : (double) hits / lookups;
+    }
+
+    /**
+     * Look up the result of a query.
+     * 
+     * @param queryName
+     *            the name of the query
+     * @param arguments
+     *            the arguments of the query, which must be immutable from here on
+     * @param single
+     *            true if the query is run for a single result
+     * @return the lookup, or <code>null</code> if the results of the query are not cached or must not be used in
+     *         the current transaction
+     */
+    Lookup lookup(String queryName, Object arguments, boolean single) {
+        CachedQuery query = queries.get(queryName);
+        if (query == null || !isCacheable()) {
+            return null;
+        }
+        Invalidation invalidation = currentInvalidation();
+        if (invalidation != null) {
+            for (Class<?> entityType : query.entityTypes) {
+                if (invalidation.entityTypes.contains(entityType)) {
+                    return null;
+                }
+            }
+        }
+        Key key = new Key(queryName, arguments, single);
+        long[] stamp = stamp(query);
+        Result result = results.get(key);
+        if (result != null && (System.nanoTime() - result.expires >= 0 || !Arrays.equals(stamp, result.stamp))) {
+            results.remove(key);
+            result = null;
+        }
+        if (result == null) {
+            missCount.incrementAndGet();
+        } else {
+            hitCount.incrementAndGet();
+        }
+        return new Lookup(key, query, stamp, result);
+    }
+
+    /**
+     * @return true unless a read-write transaction is active, whose queries may see its uncommitted changes
+     */
+    private static boolean isCacheable() {
+        return !TransactionSynchronizationManager.isActualTransactionActive()
+                || TransactionSynchronizationManager.isCurrentTransactionReadOnly();
+    }
+
+    private long[] stamp(CachedQuery query) {
+        long[] stamp = new long[query.entityTypes.length];
+        for (int i = 0; i < stamp.length; i++) {
+            stamp[i] = generation(query.entityTypes[i]).get();
+        }
+        return stamp;
+    }
+
+    private AtomicLong generation(Class<?> entityType) {
+        AtomicLong generation = generations.get(entityType);
+        if (generation == null) {
+            generation = new AtomicLong();
+            AtomicLong existing = generations.putIfAbsent(entityType, generation);
+            if (existing != null) {
+                generation = existing;
+            }
+        }
+        return generation;
+    }
+
+    private void advance(Class<?> entityType) {
+        for (Class<?> c = entityType; c != null && c != Object.class; c = c.getSuperclass()) {
+            generation(c).incrementAndGet();
+        }
+    }
+
+    private Invalidation currentInvalidation() {
+        return (Invalidation) TransactionSynchronizationManager.getResource(this);
+    }
+
+    /**
+     * The lookup of a query result. If it missed, the result of the query is stored through it with the
+     * generations read before the query was run, so a result that was changed meanwhile is never served.
+     */
+    final class Lookup {
+
+        private final Key key;
+
+        private final CachedQuery query;
+
+        private final long[] stamp;
+
+        private final Result result;
+
+        private Lookup(Key key, CachedQuery query, long[] stamp, Result result) {
+            this.key = key;
+            this.query = query;
+            this.stamp = stamp;
+            this.result = result;
+        }
+
+        boolean isHit() {
+            return result != null;
+        }
+
+        /**
+         * @return the cached result, which may be <code>null</code> for a single result query
+         */
+        Object getResult() {
+            return result.value;
+        }
+
+        /**
+         * Cache <code>value</code>, which must not be modified from here on, as the result of the query.
+         */
+        void store(Object value) {
+            results.put(key, new Result(value, stamp, System.nanoTime() + query.timeToLiveNanos));
+        }
+    }
+
+    private static class CachedQuery {
+
+        private final long timeToLiveNanos;
+
+        private final Class<?>[] entityTypes;
+
+        CachedQuery(long timeToLiveNanos, Class<?>[] entityTypes) {
+            this.timeToLiveNanos = timeToLiveNanos;
+            this.entityTypes = entityTypes;
+        }
+    }
+
+    private static class Result {
+
+        private final Object value;
+
+        private final long[] stamp;
+
+        private final long expires;
+
+        Result(Object value, long[] stamp, long expires) {
+            this.value = value;
+            this.stamp = stamp;
+            this.expires = expires;
+        }
+    }
+
+    private static final class Key {
+
+        private final String queryName;
+
+        private final Object arguments;
+
+        private final boolean single;
+
+        private final int hashCode;
+
+        Key(String queryName, Object arguments, boolean single) {
+            this.queryName = queryName;
+            this.arguments = arguments;
+            this.single = single;
+            this.hashCode = 31 * (31 * queryName.hashCode() + (arguments == null ? 0 : arguments.hashCode()))
+                    + (single ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return single == other.single && queryName.equals(other.queryName)
+                    && (arguments == null ? other.arguments == null : arguments.equals(other.arguments));
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * The entity types written in a transaction, whose generations are advanced when it completes. It is bound to
+     * the transaction as a resource keyed by the cache, following it through suspension and resumption.
+     */
+    private class Invalidation extends TransactionSynchronizationAdapter {
+
+        private final Set<Class<?>> entityTypes = new HashSet<Class<?>>();
+
+        @Override
+        public void suspend() {
+            TransactionSynchronizationManager.unbindResource(QueryResultCache.this);
+        }
+
+        @Override
+        public void resume() {
+            TransactionSynchronizationManager.bindResource(QueryResultCache.this, this);
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResource(QueryResultCache.this);
+            for (Class<?> entityType : entityTypes) {
+                generation(entityType).incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.jpa;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+
+import se.vgregion.dao.domain.patterns.repository.db.jpa.AsyncJpaRepository;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:JpaMockEntityRepositoryTest-context.xml")
+public class AsyncJpaRepositoryTest {
+
+    @Autowired
+    private MockEntityRepository testRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    private AsyncJpaRepository<MockEntity, Long, Long> asyncRepository;
+
+    @Before
+    public void setUp() {
+        asyncRepository = new AsyncJpaRepository<MockEntity, Long, Long>(testRepository, transactionManager,
+                executor);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void writesAndReadsRunInTransactionsOfTheirOwn() throws Exception {
+        MockEntity stored = asyncRepository.store(new MockEntity("async")).get();
+        assertNotNull(stored.getId());
+
+        Future<MockEntity> byId = asyncRepository.find(stored.getId());
+        Future<MockEntity> byPrimaryKey = asyncRepository.findByPrimaryKey(stored.getId());
+
+        assertEquals("async", byId.get().getName());
+        assertEquals("async", byPrimaryKey.get().getName());
+        assertEquals(1, asyncRepository.findByAttribute("name", "async").get().size());
+
+        asyncRepository.remove(stored.getId()).get();
+
+        assertNull(asyncRepository.find(stored.getId()).get());
+    }
+}
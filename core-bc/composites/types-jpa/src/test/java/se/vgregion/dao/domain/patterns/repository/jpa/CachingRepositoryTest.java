@@ -0,0 +1,145 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.jpa;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import se.vgregion.dao.domain.patterns.repository.db.jpa.CachingRepository;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:JpaMockEntityRepositoryTest-context.xml")
+public class CachingRepositoryTest {
+
+    @Autowired
+    private MockEntityRepository testRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    private TransactionTemplate readOnlyTemplate;
+
+    private CachingRepository<MockEntity, Long, Long> cachingRepository;
+
+    private Long id;
+
+    @Before
+    public void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTemplate = new TransactionTemplate(transactionManager);
+        readOnlyTemplate.setReadOnly(true);
+        cachingRepository = new CachingRepository<MockEntity, Long, Long>(testRepository, 100, 1, TimeUnit.MINUTES);
+        id = transactionTemplate.execute(new TransactionCallback<Long>() {
+            public Long doInTransaction(TransactionStatus status) {
+                return cachingRepository.persist(new MockEntity("cached")).getId();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                cachingRepository.remove(id);
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void repeatedLookupsAreServedFromTheCache() {
+        MockEntity first = find(id);
+        MockEntity second = find(id);
+
+        assertSame(first, second);
+        assertEquals(1, cachingRepository.getMissCount());
+        assertEquals(1, cachingRepository.getHitCount());
+
+        MockEntity byPrimaryKey = cachingRepository.findByPrimaryKey(id);
+        assertSame(byPrimaryKey, cachingRepository.findByPrimaryKey(id));
+        assertEquals(2, cachingRepository.getHitCount());
+    }
+
+    @Test
+    public void mergedEntityIsEvictedWhenTheTransactionCommits() {
+        find(id);
+
+        String nameInTransaction = transactionTemplate.execute(new TransactionCallback<String>() {
+            public String doInTransaction(TransactionStatus status) {
+                MockEntity entity = testRepository.find(id);
+                entity.setName("changed");
+                cachingRepository.merge(entity);
+                return cachingRepository.find(id).getName();
+            }
+        });
+
+        assertEquals("changed", nameInTransaction);
+        assertEquals("changed", find(id).getName());
+        assertEquals(0, cachingRepository.getHitCount());
+    }
+
+    @Test
+    public void readWriteTransactionGetsTheManagedInstance() {
+        final MockEntity cached = find(id);
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                MockEntity entity = cachingRepository.find(id);
+                assertNotSame(cached, entity);
+                assertTrue(testRepository.contains(entity));
+                assertTrue(testRepository.contains(cachingRepository.findByPrimaryKey(id)));
+                assertTrue(testRepository.contains(cachingRepository.findAllById(Arrays.asList(id)).get(0)));
+                // changed without a write through the repository, flushed by the commit
+                entity.setName("changed");
+                return null;
+            }
+        });
+
+        assertEquals(0, cachingRepository.getHitCount());
+        assertEquals("changed", transactionTemplate.execute(new TransactionCallback<String>() {
+            public String doInTransaction(TransactionStatus status) {
+                return testRepository.find(id).getName();
+            }
+        }));
+    }
+
+    private MockEntity find(final Long id) {
+        return readOnlyTemplate.execute(new TransactionCallback<MockEntity>() {
+            public MockEntity doInTransaction(TransactionStatus status) {
+                return cachingRepository.find(id);
+            }
+        });
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.jpa;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import javax.annotation.Resource;
+
+import org.junit.Test;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
+
+import se.vgregion.dao.domain.patterns.repository.db.jpa.JpaRepository;
+
+/**
+ * Tests how store and storeAll tell new entities from stored ones: by a <code>null</code> version, and by looking
+ * up an assigned ID.
+ */
+@ContextConfiguration("classpath:JpaMockEntityRepositoryTest-context.xml")
+public class JpaRepositoryStoreTest extends AbstractTransactionalJUnit4SpringContextTests {
+
+    @Resource(name = "versionedMockRepository")
+    private JpaRepository<VersionedMockEntity, Long, Long> versionedRepository;
+
+    @Resource(name = "assignedIdMockRepository")
+    private JpaRepository<AssignedIdMockEntity, Long, Long> assignedIdRepository;
+
+    @Test
+    public void storePersistsEntityWithoutVersion() {
+        VersionedMockEntity entity = new VersionedMockEntity("new");
+
+        VersionedMockEntity stored = versionedRepository.store(entity);
+
+        assertSame(entity, stored);
+        assertTrue(versionedRepository.contains(entity));
+        assertNotNull(entity.getId());
+    }
+
+    @Test
+    public void storeMergesEntityWithVersion() {
+        VersionedMockEntity detached = detach(new VersionedMockEntity("old"));
+        detached.setName("changed");
+
+        VersionedMockEntity stored = versionedRepository.store(detached);
+
+        assertNotSame(detached, stored);
+        assertFalse(versionedRepository.contains(detached));
+        versionedRepository.flush();
+        assertEquals("changed", versionedRepository.find(detached.getId()).getName());
+        assertEquals(Long.valueOf(detached.getVersion() + 1), stored.getVersion());
+    }
+
+    @Test
+    public void storeAllPersistsEntitiesWithoutVersionAndMergesTheOthers() {
+        VersionedMockEntity detached = detach(new VersionedMockEntity("old"));
+        detached.setName("changed");
+        VersionedMockEntity entity = new VersionedMockEntity("new");
+
+        versionedRepository.storeAll(Arrays.asList(detached, entity));
+
+        assertNotNull(entity.getId());
+        assertEquals(Long.valueOf(0), entity.getVersion());
+        assertEquals(Long.valueOf(0), detached.getVersion());
+        VersionedMockEntity merged = versionedRepository.find(detached.getId());
+        assertEquals("changed", merged.getName());
+        assertEquals(Long.valueOf(1), merged.getVersion());
+        assertEquals(2, versionedRepository.findAll().size());
+    }
+
+    @Test
+    public void storePersistsEntityWithUnknownAssignedId() {
+        AssignedIdMockEntity entity = new AssignedIdMockEntity(1L, "new");
+
+        AssignedIdMockEntity stored = assignedIdRepository.store(entity);
+
+        assertSame(entity, stored);
+        assertTrue(assignedIdRepository.contains(entity));
+    }
+
+    @Test
+    public void storeMergesEntityWithKnownAssignedId() {
+        AssignedIdMockEntity detached = new AssignedIdMockEntity(1L, "old");
+        assignedIdRepository.persist(detached);
+        assignedIdRepository.flush();
+        assignedIdRepository.clear();
+        detached.setName("changed");
+
+        AssignedIdMockEntity stored = assignedIdRepository.store(detached);
+
+        assertNotSame(detached, stored);
+        assertFalse(assignedIdRepository.contains(detached));
+        assertEquals("changed", assignedIdRepository.find(1L).getName());
+        assertEquals(1, assignedIdRepository.findAll().size());
+    }
+
+    @Test
+    public void storeAllWritesEntitiesWithAssignedIds() {
+        AssignedIdMockEntity detached = new AssignedIdMockEntity(1L, "old");
+        assignedIdRepository.persist(detached);
+        assignedIdRepository.flush();
+        assignedIdRepository.clear();
+        detached.setName("changed");
+
+        assignedIdRepository.storeAll(Arrays.asList(detached, new AssignedIdMockEntity(2L, "new")));
+
+        assertEquals("changed", assignedIdRepository.find(1L).getName());
+        assertEquals("new", assignedIdRepository.find(2L).getName());
+        assertEquals(2, assignedIdRepository.findAll().size());
+    }
+
+    private VersionedMockEntity detach(VersionedMockEntity entity) {
+        versionedRepository.persist(entity);
+        versionedRepository.flush();
+        versionedRepository.clear();
+        return entity;
+    }
+}
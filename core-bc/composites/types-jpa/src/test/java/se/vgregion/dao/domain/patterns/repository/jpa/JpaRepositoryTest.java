@@ -20,7 +20,10 @@ package se.vgregion.dao.domain.patterns.repository.jpa;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -30,6 +33,9 @@ import org.springframework.test.annotation.Rollback;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.junit4.AbstractTransactionalJUnit4SpringContextTests;
 
+import se.vgregion.dao.domain.patterns.repository.Page;
+import se.vgregion.dao.domain.patterns.repository.PageRequest;
+
 /**
  * @author <a href="mailto:david.rosell@redpill-linpro.com">David Rosell</a>
  * @author Anders Asplund - Callista Enterprise
@@ -76,6 +82,34 @@ public class JpaRepositoryTest extends AbstractTransactionalJUnit4SpringContextT
         assertEquals(2, entityList.size());
     }
 
+    @Test
+    public void findByAttribute() {
+        assertEquals(1, testRepository.findByAttribute("name", "entityName2").size());
+        assertEquals(0, testRepository.findByAttribute("name", "unknown").size());
+    }
+
+    @Test
+    public void findAllById() {
+        MockEntity managed = testRepository.find(2L);
+
+        List<MockEntity> found = testRepository.findAllById(Arrays.asList(2L, 3L, 1L, 2L));
+
+        assertEquals(3, found.size());
+        assertSame(managed, found.get(0));
+        assertEquals(Long.valueOf(1L), found.get(1).getId());
+        assertSame(managed, found.get(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findByAttributeRejectsUnknownAttribute() {
+        testRepository.findByAttribute("name = 'x' or 1 = 1 or e.name", "x");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void findPageRejectsUnknownSortAttribute() {
+        testRepository.findPage(PageRequest.first(1, "id desc, e.name", true));
+    }
+
     @Test
     @Rollback(false)
     public void merge() {
@@ -179,4 +213,149 @@ public class JpaRepositoryTest extends AbstractTransactionalJUnit4SpringContextT
         assertEquals(3, entityList.size());
 
     }
+
+    @Test
+    public void storeDetached() {
+        MockEntity detached = testRepository.find(1L);
+        testRepository.clear();
+        detached.setName("detached");
+
+        MockEntity stored = testRepository.store(detached);
+
+        assertTrue(testRepository.contains(stored));
+        assertFalse(testRepository.contains(detached));
+        assertEquals("detached", testRepository.find(1L).getName());
+        assertEquals(2, testRepository.findAll().size());
+    }
+
+    @Test
+    public void persistAll() {
+        List<MockEntity> entities = new ArrayList<MockEntity>();
+        for (int i = 0; i < 120; i++) {
+            entities.add(new MockEntity("bulk" + i));
+        }
+
+        testRepository.persistAll(entities);
+
+        assertFalse(testRepository.contains(entities.get(0)));
+        assertNotNull(entities.get(119).getId());
+        assertEquals(122, testRepository.findAll().size());
+    }
+
+    @Test
+    public void storeAll() {
+        MockEntity existing = testRepository.find(1L);
+        existing.setName("changed");
+        testRepository.clear();
+
+        testRepository.storeAll(Arrays.asList(existing, new MockEntity("new")));
+
+        assertEquals("changed", testRepository.find(1L).getName());
+        assertEquals(3, testRepository.findAll().size());
+    }
+
+    @Test
+    public void removeAllByPrimaryKey() {
+        MockEntity managed = testRepository.find(1L);
+
+        int removed = testRepository.removeAllByPrimaryKey(Arrays.asList(1L, 2L, 3L));
+
+        assertEquals(2, removed);
+        assertFalse(testRepository.contains(managed));
+        assertTrue(testRepository.findAll().isEmpty());
+    }
+
+    @Test
+    public void removeByAttribute() {
+        int removed = testRepository.removeByAttribute("name", "entityName2");
+
+        assertEquals(1, removed);
+        assertEquals(1, testRepository.findAll().size());
+        assertEquals(0, testRepository.removeByAttribute("name", null));
+    }
+
+    @Test
+    public void iterateAll() {
+        List<String> names = new ArrayList<String>();
+        MockEntity first = null;
+        for (MockEntity entity : testRepository.iterateAll(1)) {
+            if (first == null) {
+                first = entity;
+            } else {
+                // the previous chunk has been detached
+                assertFalse(testRepository.contains(first));
+            }
+            names.add(entity.getName());
+        }
+
+        assertEquals(Arrays.asList("entityName1", "entityName2"), names);
+    }
+
+    @Test
+    public void iterateAllWhileRemoving() {
+        List<String> names = new ArrayList<String>();
+        for (MockEntity entity : testRepository.iterateAll(1)) {
+            names.add(entity.getName());
+            // flushed before the next chunk is read, which must not shift the following chunks
+            testRepository.remove(entity.getId());
+        }
+
+        assertEquals(Arrays.asList("entityName1", "entityName2"), names);
+        assertTrue(testRepository.findAll().isEmpty());
+    }
+
+    @Test
+    public void iterateByNamedQuery() {
+        List<String> names = new ArrayList<String>();
+        for (MockEntity entity : testRepository.iterateByNamedQuery("MockEntity.findByName",
+                new Object[] { "entityName2" }, 1)) {
+            names.add(entity.getName());
+        }
+
+        assertEquals(Arrays.asList("entityName2"), names);
+    }
+
+    @Test
+    public void iterateByQuery() {
+        List<String> names = new ArrayList<String>();
+        for (MockEntity entity : testRepository.iterateByQuery(
+                "select e from MockEntity e where e.name like ?1 order by e.id desc", new Object[] { "entity%" }, 1)) {
+            names.add(entity.getName());
+        }
+
+        assertEquals(Arrays.asList("entityName2", "entityName1"), names);
+    }
+
+    @Test
+    public void findPageById() {
+        Page<MockEntity> first = testRepository.findPage(PageRequest.first(1));
+        Page<MockEntity> second = testRepository.findPage(first.nextPageRequest());
+
+        assertEquals(Long.valueOf(1), first.getContent().get(0).getId());
+        assertEquals(Long.valueOf(2), second.getContent().get(0).getId());
+        assertFalse(second.hasNext());
+    }
+
+    @Test
+    public void findPageBySortAttribute() {
+        testRepository.persist(new MockEntity("entityName0"));
+
+        Page<MockEntity> first = testRepository.findPage(PageRequest.first(2, "name", false));
+        Page<MockEntity> second = testRepository.findPage(first.nextPageRequest());
+
+        assertEquals("entityName2", first.getContent().get(0).getName());
+        assertEquals("entityName1", first.getContent().get(1).getName());
+        assertEquals(1, second.getContent().size());
+        assertEquals("entityName0", second.getContent().get(0).getName());
+        assertFalse(second.hasNext());
+    }
+
+    @Test
+    public void findPageAtOffset() {
+        Page<MockEntity> page = testRepository.findPage(PageRequest.atOffset(1, 5, "name", true));
+
+        assertEquals(1, page.getContent().size());
+        assertEquals("entityName2", page.getContent().get(0).getName());
+        assertFalse(page.hasNext());
+    }
 }
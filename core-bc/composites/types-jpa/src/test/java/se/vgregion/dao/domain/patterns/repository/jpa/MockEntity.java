@@ -24,6 +24,7 @@ import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.NamedQuery;
 import javax.persistence.Table;
 
 import se.vgregion.dao.domain.patterns.entity.AbstractEntity;
@@ -34,6 +35,7 @@ import se.vgregion.dao.domain.patterns.entity.AbstractEntity;
 
 @Entity
 @Table(name = "vgr_test_entity")
+@NamedQuery(name = "MockEntity.findByName", query = "select o from MockEntity o where o.name = ?1")
 public class MockEntity extends AbstractEntity<Long> implements Serializable {
 
     private static final long serialVersionUID = 5067859147916759914L;
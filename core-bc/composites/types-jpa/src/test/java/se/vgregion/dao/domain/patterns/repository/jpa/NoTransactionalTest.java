@@ -19,4 +19,9 @@ public class NoTransactionalTest {
         testRepository.store((new MockEntity("foo")));
     }
 
+    @Test(expected = IllegalStateException.class)
+    public void iterateQueryWithoutTransaction() {
+        testRepository.iterateByQuery("select e from MockEntity e", null, 10).iterator();
+    }
+
 }
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.jpa;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import se.vgregion.dao.domain.patterns.repository.db.jpa.QueryResultCache;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("classpath:JpaMockEntityRepositoryTest-context.xml")
+public class QueryResultCacheTest {
+
+    private static final String QUERY = "MockEntity.findByName";
+
+    private static final Object[] ARGS = new Object[] { "cachedQuery" };
+
+    @Autowired
+    private MockEntityRepository testRepository;
+
+    @Autowired
+    private QueryResultCache queryResultCache;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @Before
+    public void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        queryResultCache.cacheQuery(QUERY, 1, TimeUnit.MINUTES, MockEntity.class);
+        persist("cachedQuery");
+    }
+
+    @After
+    public void tearDown() {
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                testRepository.removeByAttribute("name", "cachedQuery");
+                return null;
+            }
+        });
+    }
+
+    @Test
+    public void repeatedQueryIsServedFromTheCache() {
+        long hits = queryResultCache.getHitCount();
+
+        assertEquals(1, testRepository.findByNamedQuery(QUERY, ARGS).size());
+        assertEquals(1, testRepository.findByNamedQuery(QUERY, ARGS).size());
+        assertEquals("cachedQuery", testRepository.findInstanceByNamedQuery(QUERY, ARGS).getName());
+        assertEquals("cachedQuery", testRepository.findInstanceByNamedQuery(QUERY, ARGS).getName());
+
+        assertEquals(hits + 2, queryResultCache.getHitCount());
+    }
+
+    @Test
+    public void writeInvalidatesResultsWhenTheTransactionCommits() {
+        testRepository.findByNamedQuery(QUERY, ARGS);
+
+        int sizeInTransaction = transactionTemplate.execute(new TransactionCallback<Integer>() {
+            public Integer doInTransaction(TransactionStatus status) {
+                testRepository.persist(new MockEntity("cachedQuery"));
+                return testRepository.findByNamedQuery(QUERY, ARGS).size();
+            }
+        });
+        long hits = queryResultCache.getHitCount();
+
+        assertEquals(2, sizeInTransaction);
+        assertEquals(2, testRepository.findByNamedQuery(QUERY, ARGS).size());
+        assertEquals(hits, queryResultCache.getHitCount());
+    }
+
+    @Test
+    public void readWriteTransactionNeitherReadsNorStoresResults() {
+        testRepository.findByNamedQuery(QUERY, ARGS);
+        long hits = queryResultCache.getHitCount();
+        long misses = queryResultCache.getMissCount();
+
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                MockEntity entity = testRepository.findByAttribute("name", "cachedQuery").iterator().next();
+                entity.setName("uncommitted");
+                assertTrue(testRepository.findByNamedQuery(QUERY, ARGS).isEmpty());
+                assertEquals(1, testRepository.findByNamedQuery(QUERY, new Object[] { "uncommitted" }).size());
+                status.setRollbackOnly();
+                return null;
+            }
+        });
+
+        assertEquals(hits, queryResultCache.getHitCount());
+        assertEquals(misses, queryResultCache.getMissCount());
+        assertTrue(testRepository.findByNamedQuery(QUERY, new Object[] { "uncommitted" }).isEmpty());
+        assertEquals("cachedQuery", testRepository.findInstanceByNamedQuery(QUERY, ARGS).getName());
+    }
+
+    private void persist(final String name) {
+        transactionTemplate.execute(new TransactionCallback<Object>() {
+            public Object doInTransaction(TransactionStatus status) {
+                testRepository.persist(new MockEntity(name));
+                return null;
+            }
+        });
+    }
+}
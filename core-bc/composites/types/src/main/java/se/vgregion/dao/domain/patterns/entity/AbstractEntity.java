@@ -5,7 +5,8 @@
 package se.vgregion.dao.domain.patterns.entity;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.ToStringBuilder;
+
+import se.vgregion.dao.domain.patterns.support.ToStringRenderer;
 
 /**
  * Abstract default implementation common to all concrete implementation of Entity.
@@ -68,7 +69,7 @@ public abstract class AbstractEntity<ID> implements Entity<ID> {
 
     @Override
     public String toString() {
-        return ToStringBuilder.reflectionToString(this);
+        return ToStringRenderer.render(this, ToStringRenderer.Style.DEFAULT);
     }
 
 }
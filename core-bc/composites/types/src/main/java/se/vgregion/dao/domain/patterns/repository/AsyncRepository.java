@@ -0,0 +1,79 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository;
+
+import java.util.Collection;
+import java.util.concurrent.Future;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+
+/**
+ * Non-blocking companion to {@link Repository}. Each method starts the corresponding repository operation in the
+ * background and returns at once, so that a caller can issue several independent lookups, possibly against
+ * different repositories, and have them overlap instead of running one after another.
+ * 
+ * @param <T>
+ *            The Entity type
+ * @param <ID>
+ *            The Id type
+ * 
+ * @see Repository
+ */
+public interface AsyncRepository<T extends Entity<ID>, ID> {
+
+    /**
+     * @see Repository#find(Object)
+     */
+    Future<T> find(ID id);
+
+    /**
+     * @see Repository#findAll()
+     */
+    Future<Collection<T>> findAll();
+
+    /**
+     * @see Repository#contains(Entity)
+     */
+    Future<Boolean> contains(T entity);
+
+    /**
+     * @see Repository#persist(Entity)
+     */
+    Future<T> persist(T object);
+
+    /**
+     * @see Repository#merge(Entity)
+     */
+    Future<T> merge(T object);
+
+    /**
+     * @see Repository#store(Entity)
+     */
+    Future<T> store(T entity);
+
+    /**
+     * @see Repository#remove(Entity)
+     */
+    Future<Void> remove(T object);
+
+    /**
+     * @see Repository#remove(Object)
+     */
+    Future<Void> remove(ID id);
+}
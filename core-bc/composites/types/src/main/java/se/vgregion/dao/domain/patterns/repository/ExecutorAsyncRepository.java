@@ -0,0 +1,169 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository;
+
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+
+/**
+ * {@link AsyncRepository} running the operations of a {@link Repository} on an {@link ExecutorService}.
+ * <p/>
+ * The executor decides how many operations may run at the same time. Repository operations mostly wait for I/O,
+ * so an executor that starts a thread per task is a good fit as long as the repository itself limits the number
+ * of concurrent connections; otherwise use a pool no larger than the connection pool.
+ * <p/>
+ * Subclasses can override {@link #submit(Callable, boolean)} to establish the context each operation needs on
+ * the executing thread, such as a transaction.
+ * 
+ * @param <T>
+ *            The Entity type
+ * @param <ID>
+ *            The Id type
+ */
+public class ExecutorAsyncRepository<T extends Entity<ID>, ID> implements AsyncRepository<T, ID> {
+
+    private final Repository<T, ID> repository;
+
+    private final ExecutorService executor;
+
+    /**
+     * @param repository
+     *            the repository to run the operations on
+     * @param executor
+     *            the executor to run the operations with
+     */
+    public ExecutorAsyncRepository(Repository<T, ID> repository, ExecutorService executor) {
+        this.repository = repository;
+        this.executor = executor;
+    }
+
+    /**
+     * @return the repository the operations run on
+     */
+    protected Repository<T, ID> getRepository() {
+        return repository;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<T> find(final ID id) {
+        return submit(new Callable<T>() {
+            public T call() {
+                return repository.find(id);
+            }
+        }, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<Collection<T>> findAll() {
+        return submit(new Callable<Collection<T>>() {
+            public Collection<T> call() {
+                return repository.findAll();
+            }
+        }, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<Boolean> contains(final T entity) {
+        return submit(new Callable<Boolean>() {
+            public Boolean call() {
+                return repository.contains(entity);
+            }
+        }, true);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<T> persist(final T object) {
+        return submit(new Callable<T>() {
+            public T call() {
+                return repository.persist(object);
+            }
+        }, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<T> merge(final T object) {
+        return submit(new Callable<T>() {
+            public T call() {
+                return repository.merge(object);
+            }
+        }, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<T> store(final T entity) {
+        return submit(new Callable<T>() {
+            public T call() {
+                return repository.store(entity);
+            }
+        }, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<Void> remove(final T object) {
+        return submit(new Callable<Void>() {
+            public Void call() {
+                repository.remove(object);
+                return null;
+            }
+        }, false);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Future<Void> remove(final ID id) {
+        return submit(new Callable<Void>() {
+            public Void call() {
+                repository.remove(id);
+                return null;
+            }
+        }, false);
+    }
+
+    /**
+     * Start <code>task</code> on the executor.
+     * 
+     * @param task
+     *            the repository operation
+     * @param readOnly
+     *            true if the operation does not modify the repository
+     * @return the pending result of the operation
+     */
+    protected <V> Future<V> submit(Callable<V> task, boolean readOnly) {
+        return executor.submit(task);
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * A page of entities read with a {@link PageRequest}.
+ * 
+ * @param <T>
+ *            The Entity type
+ */
+public final class Page<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<T> content;
+
+    private final PageRequest nextPageRequest;
+
+    /**
+     * @param content
+     *            the entities on the page
+     * @param nextPageRequest
+     *            the request for the following page, or <code>null</code> if this is the last page
+     */
+    public Page(List<T> content, PageRequest nextPageRequest) {
+        this.content = content;
+        this.nextPageRequest = nextPageRequest;
+    }
+
+    /**
+     * @return the entities on the page, in order
+     */
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * @return true if there are more entities after this page
+     */
+    public boolean hasNext() {
+        return nextPageRequest != null;
+    }
+
+    /**
+     * @return the request for the following page, or <code>null</code> if this is the last page
+     */
+    public PageRequest nextPageRequest() {
+        return nextPageRequest;
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository;
+
+import java.io.Serializable;
+
+/**
+ * Describes which page of entities to read: its size, the order of the entities and where the page starts.
+ * <p/>
+ * Entities are ordered by a sort attribute and then by ID, or by ID only. A page normally starts right after the
+ * last entity of the previous page, identified by its sort value and ID (keyset pagination). Reading such a page
+ * costs the same no matter how far into the result it is, and entities added or removed in the meantime do not
+ * cause rows to be skipped or repeated. Pages can also be addressed by offset when random access is needed, at the
+ * price of reading and discarding all preceding entities.
+ * <p/>
+ * Start with {@link #first(int)} or {@link #first(int, String, boolean)} and continue with
+ * {@link Page#nextPageRequest()}. The sort attribute must not be <code>null</code> for any entity.
+ */
+public final class PageRequest implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int size;
+
+    private final String sortAttribute;
+
+    private final boolean ascending;
+
+    private final int offset;
+
+    private final boolean keyset;
+
+    private final Object lastSortValue;
+
+    private final Object lastId;
+
+    private PageRequest(int size, String sortAttribute, boolean ascending, int offset, boolean keyset,
+            Object lastSortValue, Object lastId) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        if (offset < 0) {
+            throw new IllegalArgumentException("Offset must not be negative");
+        }
+        this.size = size;
+        this.sortAttribute = sortAttribute;
+        this.ascending = ascending;
+        this.offset = offset;
+        this.keyset = keyset;
+        this.lastSortValue = lastSortValue;
+        this.lastId = lastId;
+    }
+
+    /**
+     * Request the first page of entities in ascending ID order.
+     * 
+     * @param size
+     *            the maximum number of entities on a page
+     */
+    public static PageRequest first(int size) {
+        return first(size, null, true);
+    }
+
+    /**
+     * Request the first page of entities ordered by <code>sortAttribute</code>, and by ID for equal values.
+     * 
+     * @param size
+     *            the maximum number of entities on a page
+     * @param sortAttribute
+     *            the attribute to order by, or <code>null</code> to order by ID only
+     * @param ascending
+     *            true for ascending order, false for descending order
+     */
+    public static PageRequest first(int size, String sortAttribute, boolean ascending) {
+        return new PageRequest(size, sortAttribute, ascending, 0, true, null, null);
+    }
+
+    /**
+     * Request the page starting at the entity at position <code>offset</code>.
+     * 
+     * @param offset
+     *            the number of entities before the page
+     * @param size
+     *            the maximum number of entities on a page
+     * @param sortAttribute
+     *            the attribute to order by, or <code>null</code> to order by ID only
+     * @param ascending
+     *            true for ascending order, false for descending order
+     */
+    public static PageRequest atOffset(int offset, int size, String sortAttribute, boolean ascending) {
+        return new PageRequest(size, sortAttribute, ascending, offset, false, null, null);
+    }
+
+    /**
+     * Request the page following this one. Used by repositories to build the {@link Page} they return.
+     * 
+     * @param sortValue
+     *            the sort attribute value of the last entity on this page, or its ID if ordered by ID only
+     * @param id
+     *            the ID of the last entity on this page
+     * @return the request for the next page
+     */
+    public PageRequest next(Object sortValue, Object id) {
+        if (keyset) {
+            return new PageRequest(size, sortAttribute, ascending, 0, true, sortValue, id);
+        }
+        return new PageRequest(size, sortAttribute, ascending, offset + size, false, null, null);
+    }
+
+    /**
+     * @return the maximum number of entities on a page
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the attribute to order by, or <code>null</code> to order by ID only
+     */
+    public String getSortAttribute() {
+        return sortAttribute;
+    }
+
+    /**
+     * @return true for ascending order, false for descending order
+     */
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    /**
+     * @return true if the page starts after a known entity, false if it starts at an offset
+     */
+    public boolean isKeyset() {
+        return keyset;
+    }
+
+    /**
+     * @return true if this is a keyset request for the first page
+     */
+    public boolean isFirst() {
+        return keyset && lastId == null;
+    }
+
+    /**
+     * @return the number of entities before the page, for offset requests
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the sort value of the entity the page starts after, for keyset requests
+     */
+    public Object getLastSortValue() {
+        return lastSortValue;
+    }
+
+    /**
+     * @return the ID of the entity the page starts after, for keyset requests
+     */
+    public Object getLastId() {
+        return lastId;
+    }
+}
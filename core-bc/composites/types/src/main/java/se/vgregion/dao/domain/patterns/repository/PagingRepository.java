@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+
+/**
+ * A repository that can read its entities a page at a time.
+ * 
+ * @param <T>
+ *            The Entity type
+ * @param <ID>
+ *            The Id type
+ */
+public interface PagingRepository<T extends Entity<ID>, ID> extends Repository<T, ID> {
+
+    /**
+     * Read a page of entities.
+     * 
+     * @param request
+     *            which page to read
+     * @return the entities on the page and the request for the next page
+     */
+    Page<T> findPage(PageRequest request);
+}
@@ -19,6 +19,7 @@
 package se.vgregion.dao.domain.patterns.repository;
 
 import java.util.Collection;
+import java.util.List;
 
 import se.vgregion.dao.domain.patterns.entity.Entity;
 
@@ -81,6 +82,17 @@ public interface Repository<T extends Entity<ID>, ID> {
      */
     T find(ID id);
 
+    /**
+     * Finds the instances of <code>T</code> identified by <code>ids</code> in one operation, which is more
+     * efficient than calling {@link #find(Object)} for each of them.
+     * 
+     * @param ids
+     *            The ids of the entities
+     * 
+     * @return the entities found, in the order of <code>ids</code>; ids without an entity are left out
+     */
+    List<T> findAllById(Collection<ID> ids);
+
     /**
      * Update existing <code>object</code>.
      * 
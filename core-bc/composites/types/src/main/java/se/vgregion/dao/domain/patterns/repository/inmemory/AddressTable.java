@@ -0,0 +1,160 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+/**
+ * Hash table from keys to primitive <code>long</code> addresses, using open addressing with linear probing. The
+ * keys and addresses are stored in two arrays of the same power of two length, so the table holds no per-entry
+ * objects besides the keys themselves. Removal shifts the following entries of the probe sequence back instead of
+ * leaving tombstones, and the table shrinks again when most of its entries have been removed.
+ * <p/>
+ * The table is not thread safe; reads may run concurrently, but writes must be serialized with them by the
+ * caller.
+ * 
+ * @param <K>
+ *            the key type
+ */
+final class AddressTable<K> {
+
+    /** Returned when a key has no address. Addresses are never negative. */
+    static final long NO_ADDRESS = -1L;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private Object[] keys = new Object[MIN_CAPACITY];
+
+    private long[] addresses = new long[MIN_CAPACITY];
+
+    private int size;
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of slots, for iterating with {@link #keyAt(int)} and {@link #addressAt(int)}
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * @return the key in <code>slot</code>, or <code>null</code> if the slot is free
+     */
+    @SuppressWarnings("unchecked")
+    K keyAt(int slot) {
+        return (K) keys[slot];
+    }
+
+    long addressAt(int slot) {
+        return addresses[slot];
+    }
+
+    void setAddressAt(int slot, long address) {
+        addresses[slot] = address;
+    }
+
+    long get(Object key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == null) {
+                return NO_ADDRESS;
+            }
+            if (k.equals(key)) {
+                return addresses[i];
+            }
+        }
+    }
+
+    /**
+     * @return the previous address of <code>key</code>, or {@link #NO_ADDRESS}
+     */
+    long put(K key, long address) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            Object k = keys[i];
+            if (k == null) {
+                keys[i] = key;
+                addresses[i] = address;
+                if (++size > keys.length / 4 * 3) {
+                    resize(keys.length * 2);
+                }
+                return NO_ADDRESS;
+            }
+            if (k.equals(key)) {
+                long previous = addresses[i];
+                addresses[i] = address;
+                return previous;
+            }
+        }
+    }
+
+    /**
+     * @return the address <code>key</code> had, or {@link #NO_ADDRESS}
+     */
+    long remove(Object key) {
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        while (!key.equals(keys[i])) {
+            if (keys[i] == null) {
+                return NO_ADDRESS;
+            }
+            i = (i + 1) & mask;
+        }
+        long previous = addresses[i];
+        // shift back the entries whose probe sequence passes the freed slot
+        for (int j = (i + 1) & mask; keys[j] != null; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            if (((j - home) & mask) >= ((j - i) & mask)) {
+                keys[i] = keys[j];
+                addresses[i] = addresses[j];
+                i = j;
+            }
+        }
+        keys[i] = null;
+        if (--size < keys.length / 8 && keys.length > MIN_CAPACITY) {
+            resize(keys.length / 2);
+        }
+        return previous;
+    }
+
+    private void resize(int capacity) {
+        Object[] oldKeys = keys;
+        long[] oldAddresses = addresses;
+        keys = new Object[capacity];
+        addresses = new long[capacity];
+        int mask = capacity - 1;
+        for (int slot = 0; slot < oldKeys.length; slot++) {
+            if (oldKeys[slot] != null) {
+                int i = hash(oldKeys[slot]) & mask;
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[slot];
+                addresses[i] = oldAddresses[slot];
+            }
+        }
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Reads a named attribute from an entity. The attribute name follows the JPQL path syntax, i.e.
+ * <code>name</code> or <code>address.city</code>. Each path element is resolved to a field (searching the class
+ * hierarchy) or, if no such field exists, to a <code>getX()</code>/<code>isX()</code> method. The resolved member
+ * is cached per concrete class so the lookup is only done once.
+ */
+class AttributeAccessor {
+
+    private final String attributeName;
+
+    private final String[] path;
+
+    private final List<ConcurrentMap<Class<?>, AccessibleObject>> members;
+
+    AttributeAccessor(String attributeName) {
+        if (attributeName == null || attributeName.length() == 0) {
+            throw new IllegalArgumentException("Attribute name must not be empty");
+        }
+        this.attributeName = attributeName;
+        this.path = attributeName.split("\\.");
+        this.members = new ArrayList<ConcurrentMap<Class<?>, AccessibleObject>>(path.length);
+        for (int i = 0; i < path.length; i++) {
+            members.add(new ConcurrentHashMap<Class<?>, AccessibleObject>());
+        }
+    }
+
+    String getAttributeName() {
+        return attributeName;
+    }
+
+    /**
+     * Read the attribute value from <code>target</code>.
+     *
+     * @param target
+     *            the entity to read from
+     * @return the attribute value, or <code>null</code> if any element along the path is <code>null</code>
+     */
+    Object get(Object target) {
+        Object current = target;
+        for (int i = 0; i < path.length && current != null; i++) {
+            current = read(member(current.getClass(), i), current);
+        }
+        return current;
+    }
+
+    private AccessibleObject member(Class<?> type, int position) {
+        ConcurrentMap<Class<?>, AccessibleObject> resolved = members.get(position);
+        AccessibleObject member = resolved.get(type);
+        if (member == null) {
+            member = resolve(type, path[position]);
+            resolved.put(type, member);
+        }
+        return member;
+    }
+
+    private AccessibleObject resolve(Class<?> type, String name) {
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            try {
+                Field field = c.getDeclaredField(name);
+                field.setAccessible(true);
+                return field;
+            } catch (NoSuchFieldException e) {
+                continue;
+            }
+        }
+        String suffix = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+        for (String prefix : new String[] { "get", "is" }) {
+            try {
+                Method method = type.getMethod(prefix + suffix);
+                method.setAccessible(true);
+                return method;
+            } catch (NoSuchMethodException e) {
+                continue;
+            }
+        }
+        throw new IllegalArgumentException("Attribute '" + name + "' not found in " + type.getName());
+    }
+
+    private Object read(AccessibleObject member, Object target) {
+        try {
+            if (member instanceof Field) {
+                return ((Field) member).get(target);
+            }
+            return ((Method) member).invoke(target);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException("Unable to read attribute '" + attributeName + "'", e);
+        } catch (InvocationTargetException e) {
+            throw new IllegalStateException("Unable to read attribute '" + attributeName + "'", e.getCause());
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Hash index from an attribute value to the IDs of the entities holding that value.
+ * <p/>
+ * The index remembers the value it indexed for every ID, so an entity that is modified in place and then stored
+ * again is moved from its old bucket to its new one. Updates for a single ID must be serialized by the caller;
+ * lookups are lock free.
+ *
+ * @param <ID>
+ *            The ID type of the indexed entities
+ */
+class AttributeIndex<ID> {
+
+    private static final Object NULL = new Object();
+
+    private final AttributeAccessor accessor;
+
+    private final boolean unique;
+
+    private final ConcurrentMap<ID, Object> keysById = new ConcurrentHashMap<ID, Object>();
+
+    private final ConcurrentMap<Object, ID> uniqueIds = new ConcurrentHashMap<Object, ID>();
+
+    private final ConcurrentMap<Object, Bucket<ID>> buckets = new ConcurrentHashMap<Object, Bucket<ID>>();
+
+    AttributeIndex(String attributeName, boolean unique) {
+        this.accessor = new AttributeAccessor(attributeName);
+        this.unique = unique;
+    }
+
+    String getAttributeName() {
+        return accessor.getAttributeName();
+    }
+
+    boolean isUnique() {
+        return unique;
+    }
+
+    /**
+     * Extract the index key of <code>entity</code>.
+     */
+    Object keyOf(Object entity) {
+        return mask(accessor.get(entity));
+    }
+
+    /**
+     * Claim <code>key</code> for <code>id</code> in a unique index, before the entity is written to the
+     * repository. Non-unique indexes accept any key.
+     *
+     * @throws IllegalArgumentException
+     *             if another entity already holds <code>key</code>
+     */
+    void reserve(ID id, Object key) {
+        if (!unique) {
+            return;
+        }
+        ID owner = uniqueIds.putIfAbsent(key, id);
+        if (owner != null && !owner.equals(id)) {
+            throw new IllegalArgumentException("Unique index on '" + getAttributeName()
+                    + "' already contains the value " + unmask(key));
+        }
+    }
+
+    /**
+     * Release a reservation that was made by {@link #reserve(Object, Object)} but never followed by
+     * {@link #put(Object, Object)}.
+     */
+    void release(ID id, Object key) {
+        if (unique && !key.equals(keysById.get(id))) {
+            uniqueIds.remove(key, id);
+        }
+    }
+
+    /**
+     * Index <code>id</code> under <code>key</code>, removing it from the key it was previously indexed under.
+     * For unique indexes the key must have been reserved first.
+     */
+    void put(ID id, Object key) {
+        Object previous = keysById.put(id, key);
+        if (previous != null) {
+            if (previous.equals(key)) {
+                return;
+            }
+            detach(id, previous);
+        }
+        if (unique) {
+            return;
+        }
+        while (true) {
+            Bucket<ID> bucket = buckets.get(key);
+            if (bucket == null) {
+                bucket = new Bucket<ID>();
+                Bucket<ID> existing = buckets.putIfAbsent(key, bucket);
+                if (existing != null) {
+                    bucket = existing;
+                }
+            }
+            if (bucket.add(id)) {
+                return;
+            }
+            // raced with the removal of an emptied bucket
+            buckets.remove(key, bucket);
+        }
+    }
+
+    /**
+     * Remove <code>id</code> from the index.
+     */
+    void remove(ID id) {
+        Object previous = keysById.remove(id);
+        if (previous != null) {
+            detach(id, previous);
+        }
+    }
+
+    /**
+     * @return the IDs of all entities whose attribute equals <code>value</code>
+     */
+    Set<ID> lookup(Object value) {
+        Object key = mask(value);
+        if (unique) {
+            ID id = uniqueIds.get(key);
+            // a reservation is only visible once the entity has been indexed
+            if (id != null && key.equals(keysById.get(id))) {
+                return Collections.singleton(id);
+            }
+            return Collections.emptySet();
+        }
+        Bucket<ID> bucket = buckets.get(key);
+        if (bucket == null) {
+            return Collections.emptySet();
+        }
+        return bucket.ids.keySet();
+    }
+
+    private void detach(ID id, Object key) {
+        if (unique) {
+            uniqueIds.remove(key, id);
+        } else {
+            Bucket<ID> bucket = buckets.get(key);
+            if (bucket != null && bucket.remove(id)) {
+                buckets.remove(key, bucket);
+            }
+        }
+    }
+
+    private static Object mask(Object value) {
+        return value == null ? NULL : value;
+    }
+
+    private static Object unmask(Object key) {
+        return key == NULL ? null : key;
+    }
+
+    /**
+     * The IDs sharing a key in a non-unique index. A bucket that has been emptied is marked dead so that a
+     * concurrent writer never adds to a bucket that is about to be unlinked from the index.
+     */
+    private static class Bucket<ID> {
+
+        private final ConcurrentMap<ID, Boolean> ids = new ConcurrentHashMap<ID, Boolean>();
+
+        private boolean dead;
+
+        synchronized boolean add(ID id) {
+            if (dead) {
+                return false;
+            }
+            ids.put(id, Boolean.TRUE);
+            return true;
+        }
+
+        /**
+         * @return true if the bucket became empty and must be unlinked
+         */
+        synchronized boolean remove(ID id) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                dead = true;
+            }
+            return dead;
+        }
+    }
+}
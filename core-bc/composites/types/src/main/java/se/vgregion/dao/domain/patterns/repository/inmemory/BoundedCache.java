@@ -0,0 +1,552 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent map with a maximum total weight, evicting entries with the W-TinyLFU policy.
+ * <p/>
+ * New entries enter a small LRU window. Entries leaving the window compete with the least recently used entry of
+ * the main segmented LRU for admission; the one whose key has been accessed more often according to a
+ * {@link FrequencySketch} stays. Entries accessed again in the probation segment of the main space are promoted
+ * to its protected segment. This keeps the hit rate high for both recency and frequency biased workloads and
+ * protects the cache from being flushed by a scan.
+ * <p/>
+ * Reads never block: the hit is recorded in a lossy, per-thread-striped buffer and replayed against the policy
+ * in batches by whichever thread manages to take the eviction lock. Writes update the map directly and then
+ * apply the policy under the eviction lock, which is amortized O(1).
+ * 
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+public class BoundedCache<K, V> {
+
+    private static final int WINDOW_PERCENT = 1;
+
+    private static final int PROTECTED_PERCENT = 80;
+
+    private static final int STRIPES = 16;
+
+    private static final int BUFFER_SIZE = 32;
+
+    private static final byte NONE = 0;
+
+    private static final byte WINDOW = 1;
+
+    private static final byte PROBATION = 2;
+
+    private static final byte PROTECTED = 3;
+
+    private static final byte DEAD = 4;
+
+    private final ConcurrentMap<K, Node<K, V>> data = new ConcurrentHashMap<K, Node<K, V>>();
+
+    private final Weigher<? super V> weigher;
+
+    private final long maximum;
+
+    private final long windowMaximum;
+
+    private final long protectedMaximum;
+
+    private final Lock evictionLock = new ReentrantLock();
+
+    private final FrequencySketch sketch;
+
+    private final AccessOrder<K, V> window = new AccessOrder<K, V>();
+
+    private final AccessOrder<K, V> probation = new AccessOrder<K, V>();
+
+    private final AccessOrder<K, V> protectedSegment = new AccessOrder<K, V>();
+
+    private long windowWeight;
+
+    private long protectedWeight;
+
+    private volatile long totalWeight;
+
+    private final ReadStripe<K, V>[] stripes;
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Create a cache holding at most <code>maximumSize</code> entries.
+     * 
+     * @param maximumSize
+     *            the maximum number of entries
+     */
+    public BoundedCache(long maximumSize) {
+        this(maximumSize, new Weigher<Object>() {
+            public int weigh(Object value) {
+                return 1;
+            }
+        });
+    }
+
+    /**
+     * Create a cache holding entries with a total weight of at most <code>maximumWeight</code>.
+     * 
+     * @param maximumWeight
+     *            the maximum total weight
+     * @param weigher
+     *            calculates the weight of each value
+     */
+    @SuppressWarnings("unchecked")
+    public BoundedCache(long maximumWeight, Weigher<? super V> weigher) {
+        if (maximumWeight <= 0) {
+            throw new IllegalArgumentException("Maximum weight must be positive");
+        }
+        this.maximum = maximumWeight;
+        this.weigher = weigher;
+        this.windowMaximum = Math.max(1, maximumWeight * WINDOW_PERCENT / 100);
+        this.protectedMaximum = (maximumWeight - windowMaximum) * PROTECTED_PERCENT / 100;
+        this.sketch = new FrequencySketch(Math.min(maximumWeight, 1 << 20));
+        this.stripes = new ReadStripe[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new ReadStripe<K, V>();
+        }
+    }
+
+    /**
+     * Look up <code>key</code>, counting a hit or a miss and recording the access for the eviction policy.
+     * 
+     * @return the cached value or <code>null</code>
+     */
+    public V get(K key) {
+        Node<K, V> node = data.get(key);
+        ReadStripe<K, V> stripe = stripes[(int) Thread.currentThread().getId() & (STRIPES - 1)];
+        if (node == null) {
+            stripe.misses.incrementAndGet();
+            return null;
+        }
+        stripe.hits.incrementAndGet();
+        if (stripe.offer(node) && evictionLock.tryLock()) {
+            try {
+                drainReadBuffers();
+            } finally {
+                evictionLock.unlock();
+            }
+        }
+        return node.value;
+    }
+
+    /**
+     * Look up <code>key</code> without affecting statistics or the eviction policy.
+     * 
+     * @return the cached value or <code>null</code>
+     */
+    public V peek(K key) {
+        Node<K, V> node = data.get(key);
+        return node == null ? null : node.value;
+    }
+
+    /**
+     * Add or replace the value for <code>key</code>, evicting other entries if the cache grows too heavy.
+     * 
+     * @return the previous value or <code>null</code>
+     */
+    public V put(K key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int weight = weigher.weigh(value);
+        Node<K, V> node = new Node<K, V>(key, value, weight);
+        while (true) {
+            Node<K, V> prior = data.putIfAbsent(key, node);
+            evictionLock.lock();
+            try {
+                drainReadBuffers();
+                if (prior == null) {
+                    if (node.queue != DEAD) {
+                        node.queue = WINDOW;
+                        window.add(node);
+                        windowWeight += node.weight;
+                        totalWeight += node.weight;
+                        sketch.increment(key);
+                        evict();
+                    }
+                    return null;
+                }
+                if (prior.queue != DEAD) {
+                    V previous = prior.value;
+                    prior.value = value;
+                    if (prior.queue != NONE) {
+                        reweigh(prior, weight);
+                        sketch.increment(key);
+                        evict();
+                    } else {
+                        prior.weight = weight;
+                    }
+                    return previous;
+                }
+            } finally {
+                evictionLock.unlock();
+            }
+            // the prior node was removed concurrently, try again
+        }
+    }
+
+    /**
+     * Remove the entry for <code>key</code>.
+     * 
+     * @return the removed value or <code>null</code>
+     */
+    public V remove(Object key) {
+        Node<K, V> node = data.remove(key);
+        if (node == null) {
+            return null;
+        }
+        evictionLock.lock();
+        try {
+            unlink(node);
+        } finally {
+            evictionLock.unlock();
+        }
+        return node.value;
+    }
+
+    /**
+     * Remove all entries.
+     */
+    public void invalidateAll() {
+        for (K key : data.keySet()) {
+            remove(key);
+        }
+    }
+
+    /**
+     * @return the number of entries in the cache
+     */
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * @return the total weight of the entries in the cache
+     */
+    public long weightedSize() {
+        return totalWeight;
+    }
+
+    /**
+     * @return a copy of all values in the cache
+     */
+    public Collection<V> values() {
+        List<V> result = new ArrayList<V>(data.size());
+        for (Node<K, V> node : data.values()) {
+            result.add(node.value);
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of lookups that found a value
+     */
+    public long getHitCount() {
+        long hits = 0;
+        for (ReadStripe<K, V> stripe : stripes) {
+            hits += stripe.hits.get();
+        }
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that did not find a value
+     */
+    public long getMissCount() {
+        long misses = 0;
+        for (ReadStripe<K, V> stripe : stripes) {
+            misses += stripe.misses.get();
+        }
+        return misses;
+    }
+
+    /**
+     * @return the ratio of hits to lookups, or 1.0 if there have been no lookups
+     */
+    public double getHitRate() {
+        long hits = getHitCount();
+        long lookups = hits + getMissCount();
+        return lookups == 0 ? 1.0 : (double) hits / lookups;
+    }
+
+    /**
+     * @return the number of entries evicted to stay within the maximum weight
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Apply all pending reads to the eviction policy.
+     */
+    public void cleanUp() {
+        evictionLock.lock();
+        try {
+            drainReadBuffers();
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void drainReadBuffers() {
+        for (ReadStripe<K, V> stripe : stripes) {
+            Node<K, V> node;
+            while ((node = stripe.poll()) != null) {
+                onAccess(node);
+            }
+        }
+    }
+
+    private void onAccess(Node<K, V> node) {
+        sketch.increment(node.key);
+        switch (node.queue) {
+        case WINDOW:
+            window.moveToBack(node);
+            break;
+        case PROBATION:
+            probation.remove(node);
+            node.queue = PROTECTED;
+            protectedSegment.add(node);
+            protectedWeight += node.weight;
+            demoteProtected();
+            break;
+        case PROTECTED:
+            protectedSegment.moveToBack(node);
+            break;
+        default:
+            // not yet added, or already removed
+        }
+    }
+
+    private void reweigh(Node<K, V> node, int weight) {
+        int delta = weight - node.weight;
+        node.weight = weight;
+        totalWeight += delta;
+        if (node.queue == WINDOW) {
+            windowWeight += delta;
+        } else if (node.queue == PROTECTED) {
+            protectedWeight += delta;
+            demoteProtected();
+        }
+    }
+
+    private void demoteProtected() {
+        while (protectedWeight > protectedMaximum) {
+            Node<K, V> demoted = protectedSegment.poll();
+            protectedWeight -= demoted.weight;
+            demoted.queue = PROBATION;
+            probation.add(demoted);
+        }
+    }
+
+    /**
+     * Move entries that overflow the window to probation and then evict until the total weight is within the
+     * maximum, letting the most recent candidate from the window compete with the least recently used entry in
+     * probation.
+     */
+    private void evict() {
+        while (windowWeight > windowMaximum) {
+            Node<K, V> candidate = window.poll();
+            windowWeight -= candidate.weight;
+            candidate.queue = PROBATION;
+            probation.add(candidate);
+        }
+        while (totalWeight > maximum) {
+            Node<K, V> victim = probation.peek();
+            Node<K, V> candidate = probation.peekLast();
+            if (victim == null) {
+                victim = protectedSegment.peek();
+                if (victim == null) {
+                    victim = window.peek();
+                }
+            } else if (candidate != victim && sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+                victim = candidate;
+            }
+            data.remove(victim.key, victim);
+            unlink(victim);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void unlink(Node<K, V> node) {
+        switch (node.queue) {
+        case WINDOW:
+            window.remove(node);
+            windowWeight -= node.weight;
+            totalWeight -= node.weight;
+            break;
+        case PROBATION:
+            probation.remove(node);
+            totalWeight -= node.weight;
+            break;
+        case PROTECTED:
+            protectedSegment.remove(node);
+            protectedWeight -= node.weight;
+            totalWeight -= node.weight;
+            break;
+        default:
+            // not yet added, or already removed
+        }
+        node.queue = DEAD;
+    }
+
+    /**
+     * A cache entry, linked into one of the access order queues. Links and queue are guarded by the eviction
+     * lock.
+     */
+    private static final class Node<K, V> {
+
+        private final K key;
+
+        private volatile V value;
+
+        private int weight;
+
+        private byte queue = NONE;
+
+        private Node<K, V> previous;
+
+        private Node<K, V> next;
+
+        Node(K key, V value, int weight) {
+            this.key = key;
+            this.value = value;
+            this.weight = weight;
+        }
+    }
+
+    /**
+     * Intrusive doubly linked list of nodes, least recently used first.
+     */
+    private static final class AccessOrder<K, V> {
+
+        private Node<K, V> first;
+
+        private Node<K, V> last;
+
+        void add(Node<K, V> node) {
+            node.previous = last;
+            node.next = null;
+            if (last == null) {
+                first = node;
+            } else {
+                last.next = node;
+            }
+            last = node;
+        }
+
+        void remove(Node<K, V> node) {
+            if (node.previous == null) {
+                first = node.next;
+            } else {
+                node.previous.next = node.next;
+            }
+            if (node.next == null) {
+                last = node.previous;
+            } else {
+                node.next.previous = node.previous;
+            }
+            node.previous = null;
+            node.next = null;
+        }
+
+        void moveToBack(Node<K, V> node) {
+            if (node != last) {
+                remove(node);
+                add(node);
+            }
+        }
+
+        Node<K, V> peek() {
+            return first;
+        }
+
+        Node<K, V> peekLast() {
+            return last;
+        }
+
+        Node<K, V> poll() {
+            Node<K, V> node = first;
+            if (node != null) {
+                remove(node);
+            }
+            return node;
+        }
+    }
+
+    /**
+     * Hit and miss counters and a bounded, lossy ring buffer of reads for the threads hashing to this stripe. A
+     * read that finds the buffer full or contended is dropped, which only makes the policy slightly less
+     * accurate.
+     */
+    private static final class ReadStripe<K, V> {
+
+        private final AtomicLong hits = new AtomicLong();
+
+        private final AtomicLong misses = new AtomicLong();
+
+        private final AtomicReferenceArray<Node<K, V>> buffer = new AtomicReferenceArray<Node<K, V>>(BUFFER_SIZE);
+
+        private final AtomicLong writeIndex = new AtomicLong();
+
+        /** Only advanced under the eviction lock. */
+        private volatile long readIndex;
+
+        /**
+         * @return true if the buffer should be drained
+         */
+        boolean offer(Node<K, V> node) {
+            long write = writeIndex.get();
+            long pending = write - readIndex;
+            if (pending < BUFFER_SIZE && writeIndex.compareAndSet(write, write + 1)) {
+                buffer.set((int) (write & (BUFFER_SIZE - 1)), node);
+                pending++;
+            }
+            return pending >= BUFFER_SIZE / 2;
+        }
+
+        Node<K, V> poll() {
+            long read = readIndex;
+            if (read == writeIndex.get()) {
+                return null;
+            }
+            int index = (int) (read & (BUFFER_SIZE - 1));
+            Node<K, V> node = buffer.get(index);
+            if (node == null) {
+                // claimed by a reader that has not stored it yet
+                return null;
+            }
+            buffer.set(index, null);
+            readIndex = read + 1;
+            return node;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+import se.vgregion.dao.domain.patterns.repository.Repository;
+
+/**
+ * In-memory repository holding a bounded number of entities, for use as a cache in front of a slower store.
+ * When the repository grows beyond its maximum size or weight, entities are evicted according to the W-TinyLFU
+ * policy of {@link BoundedCache}, so an evicted entity will simply not be found any more. Lookups are lock free
+ * and the hit rate can be monitored through {@link #getHitRate()}.
+ * 
+ * @param <T>
+ *            The Entity type
+ * @param <ID>
+ *            The Id type
+ */
+public class BoundedInMemoryRepository<T extends Entity<ID>, ID extends Serializable> implements
+        Repository<T, ID> {
+
+    private final BoundedCache<ID, T> cache;
+
+    /**
+     * Create a repository holding at most <code>maximumSize</code> entities.
+     * 
+     * @param maximumSize
+     *            the maximum number of entities
+     */
+    public BoundedInMemoryRepository(long maximumSize) {
+        cache = new BoundedCache<ID, T>(maximumSize);
+    }
+
+    /**
+     * Create a repository holding entities with a total weight of at most <code>maximumWeight</code>.
+     * 
+     * @param maximumWeight
+     *            the maximum total weight
+     * @param weigher
+     *            calculates the weight of each entity
+     */
+    public BoundedInMemoryRepository(long maximumWeight, Weigher<? super T> weigher) {
+        cache = new BoundedCache<ID, T>(maximumWeight, weigher);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * This is a no-op operation with the in-memory repository
+     */
+    public void clear() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean contains(T entity) {
+        return cache.peek(entity.getId()) != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T find(ID id) {
+        return cache.get(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Every lookup counts as a hit or a miss as for {@link #find(Serializable)}.
+     */
+    public List<T> findAllById(Collection<ID> ids) {
+        List<T> result = new ArrayList<T>(ids.size());
+        for (ID id : ids) {
+            T entity = cache.get(id);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The returned collection is a copy of the entities currently held.
+     */
+    public Collection<T> findAll() {
+        return cache.values();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * This is a no-op operation with the in-memory repository
+     */
+    public void flush() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T merge(T object) {
+        return put(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T persist(T object) {
+        return put(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Not supported by the in-memory repository
+     */
+    public void refresh(T object) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(T object) {
+        remove(object.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(ID id) {
+        cache.remove(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T store(T entity) {
+        return put(entity);
+    }
+
+    /**
+     * @return the number of entities currently held
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    /**
+     * @return the total weight of the entities currently held
+     */
+    public long getWeightedSize() {
+        return cache.weightedSize();
+    }
+
+    /**
+     * @return the number of {@link #find(Serializable)} calls that found an entity
+     */
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    /**
+     * @return the number of {@link #find(Serializable)} calls that did not find an entity
+     */
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * @return the ratio of hits to lookups
+     */
+    public double getHitRate() {
+        return cache.getHitRate();
+    }
+
+    /**
+     * @return the number of entities evicted to stay within the bounds
+     */
+    public long getEvictionCount() {
+        return cache.getEvictionCount();
+    }
+
+    private T put(T entity) {
+        ID id = entity.getId();
+        if (id == null) {
+            throw new NullPointerException("Entity id must not be null");
+        }
+        return cache.put(id, entity);
+    }
+}
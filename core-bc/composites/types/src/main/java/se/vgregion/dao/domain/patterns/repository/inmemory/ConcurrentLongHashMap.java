@@ -0,0 +1,240 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent hash map from primitive <code>long</code> keys to objects, using open addressing with linear
+ * probing. Keys are stored in a plain <code>long[]</code> next to the values, so a lookup touches one or two
+ * cache lines and never allocates; there are no per-entry node objects.
+ * <p/>
+ * The map is split into segments that are written under their own lock. Reads take no lock: a slot's key is
+ * written before its value is published, and a slot is never reassigned to another key within a table, so a
+ * reader that finds a value also sees the key it belongs to. Removed entries leave a tombstone that is dropped
+ * when the segment is rehashed into a new table.
+ * 
+ * @param <V>
+ *            the value type
+ */
+class ConcurrentLongHashMap<V> {
+
+    private static final Object TOMBSTONE = new Object();
+
+    private static final int SEGMENTS = 16;
+
+    private static final int SEGMENT_SHIFT = 28;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+
+    ConcurrentLongHashMap() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int hash = hash(key);
+        return (V) segmentFor(hash).get(key, hash);
+    }
+
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+        int hash = hash(key);
+        return (V) segmentFor(hash).put(key, hash, value);
+    }
+
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int hash = hash(key);
+        return (V) segmentFor(hash).remove(key, hash);
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size;
+        }
+        return size;
+    }
+
+    /**
+     * @return a copy of all values in the map
+     */
+    @SuppressWarnings("unchecked")
+    List<V> values() {
+        List<V> result = new ArrayList<V>(size());
+        for (Segment segment : segments) {
+            Table table = segment.table;
+            for (int i = 0; i < table.values.length(); i++) {
+                Object value = table.values.get(i);
+                if (value != null && value != TOMBSTONE) {
+                    result.add((V) value);
+                }
+            }
+        }
+        return result;
+    }
+
+    private Segment segmentFor(int hash) {
+        return segments[(hash >>> SEGMENT_SHIFT) & (SEGMENTS - 1)];
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * A key and value array of the same power of two length. A <code>null</code> value marks a free slot.
+     */
+    private static final class Table {
+
+        private final long[] keys;
+
+        private final AtomicReferenceArray<Object> values;
+
+        private final int threshold;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new AtomicReferenceArray<Object>(capacity);
+            threshold = capacity / 4 * 3;
+        }
+    }
+
+    private static final class Segment extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private volatile Table table = new Table(MIN_CAPACITY);
+
+        private volatile int size;
+
+        /** Live entries plus tombstones. */
+        private int used;
+
+        Object get(long key, int hash) {
+            Table t = table;
+            int mask = t.keys.length - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                Object value = t.values.get(i);
+                if (value == null) {
+                    return null;
+                }
+                if (t.keys[i] == key) {
+                    return value == TOMBSTONE ? null : value;
+                }
+            }
+        }
+
+        Object put(long key, int hash, Object value) {
+            lock();
+            try {
+                Table t = table;
+                int mask = t.keys.length - 1;
+                for (int i = hash & mask;; i = (i + 1) & mask) {
+                    Object previous = t.values.get(i);
+                    if (previous == null) {
+                        if (used + 1 > t.threshold) {
+                            rehash();
+                            return put(key, hash, value);
+                        }
+                        t.keys[i] = key;
+                        t.values.set(i, value);
+                        used++;
+                        size++;
+                        return null;
+                    }
+                    if (t.keys[i] == key) {
+                        t.values.set(i, value);
+                        if (previous == TOMBSTONE) {
+                            size++;
+                            return null;
+                        }
+                        return previous;
+                    }
+                }
+            } finally {
+                unlock();
+            }
+        }
+
+        Object remove(long key, int hash) {
+            lock();
+            try {
+                Table t = table;
+                int mask = t.keys.length - 1;
+                for (int i = hash & mask;; i = (i + 1) & mask) {
+                    Object previous = t.values.get(i);
+                    if (previous == null) {
+                        return null;
+                    }
+                    if (t.keys[i] == key) {
+                        if (previous == TOMBSTONE) {
+                            return null;
+                        }
+                        t.values.set(i, TOMBSTONE);
+                        size--;
+                        return previous;
+                    }
+                }
+            } finally {
+                unlock();
+            }
+        }
+
+        /**
+         * Copy the live entries into a new table sized for twice the current number of entries. Readers keep
+         * using the old table, which is no longer modified, until they see the new one.
+         */
+        private void rehash() {
+            Table old = table;
+            int capacity = MIN_CAPACITY;
+            while (capacity / 4 * 3 <= size * 2) {
+                capacity <<= 1;
+            }
+            Table t = new Table(capacity);
+            int mask = capacity - 1;
+            for (int j = 0; j < old.keys.length; j++) {
+                Object value = old.values.get(j);
+                if (value != null && value != TOMBSTONE) {
+                    long key = old.keys[j];
+                    int i = hash(key) & mask;
+                    while (t.values.get(i) != null) {
+                        i = (i + 1) & mask;
+                    }
+                    t.keys[i] = key;
+                    t.values.set(i, value);
+                }
+            }
+            used = size;
+            table = t;
+        }
+    }
+}
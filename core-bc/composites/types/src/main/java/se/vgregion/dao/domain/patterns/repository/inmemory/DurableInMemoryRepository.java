@@ -0,0 +1,253 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+
+/**
+ * In-memory repository that survives restarts. Every write is appended to a write-ahead log before the call
+ * returns, and the state is rebuilt from the log when the repository is created.
+ * <p/>
+ * Writes are logged and applied under a single lock, which keeps the log in the same order as the in-memory
+ * state. A write is only applied to memory once it has been appended to the log, so a write that cannot be logged
+ * leaves the repository unchanged. The fsync is done outside the lock and shared by all writers waiting for it.
+ * Once the log grows beyond {@link #setCheckpointLogSize(long) checkpointLogSize} bytes, a compacted snapshot of
+ * all entities is written and the log is truncated, so recovery replays at most that much log on top of the
+ * snapshot.
+ * <p/>
+ * Reads are served from memory exactly as in {@link InMemoryRepository}.
+ * 
+ * @param <T>
+ *            The Entity type
+ * @param <ID>
+ *            The Id type
+ */
+public class DurableInMemoryRepository<T extends Entity<ID>, ID extends Serializable> extends
+        InMemoryRepository<T, ID> {
+
+    private static final long DEFAULT_CHECKPOINT_LOG_SIZE = 64L * 1024 * 1024;
+
+    private final WriteAheadLog log;
+
+    private final Serializer<T> serializer;
+
+    private final Serializer<ID> idSerializer = new JavaSerializer<ID>();
+
+    private final Lock writeLock = new ReentrantLock();
+
+    private long checkpointLogSize = DEFAULT_CHECKPOINT_LOG_SIZE;
+
+    /**
+     * The log position of the last append, guarded by the write lock.
+     */
+    private long appended;
+
+    private boolean syncOnWrite = true;
+
+    /**
+     * Open the repository stored in <code>directory</code> using Java serialization for the entities.
+     * 
+     * @param directory
+     *            the directory holding the snapshot and the log, created if it does not exist
+     * @throws IOException
+     *             if the snapshot or the log cannot be read
+     */
+    public DurableInMemoryRepository(File directory) throws IOException {
+        this(directory, new JavaSerializer<T>());
+    }
+
+    /**
+     * Open the repository stored in <code>directory</code>.
+     * 
+     * @param directory
+     *            the directory holding the snapshot and the log, created if it does not exist
+     * @param serializer
+     *            used to write entities to and read entities from the log
+     * @throws IOException
+     *             if the snapshot or the log cannot be read
+     */
+    public DurableInMemoryRepository(File directory, Serializer<T> serializer) throws IOException {
+        this.serializer = serializer;
+        this.log = new WriteAheadLog(directory);
+        log.recover(new WriteAheadLog.RecordHandler() {
+            public void apply(byte operation, byte[] payload) {
+                if (operation == WriteAheadLog.PUT) {
+                    DurableInMemoryRepository.super.store(DurableInMemoryRepository.this.serializer
+                            .deserialize(payload));
+                } else {
+                    DurableInMemoryRepository.super.remove(idSerializer.deserialize(payload));
+                }
+            }
+        });
+    }
+
+    /**
+     * @param checkpointLogSize
+     *            the log size in bytes that triggers a new snapshot, 64 MB by default
+     */
+    public void setCheckpointLogSize(long checkpointLogSize) {
+        this.checkpointLogSize = checkpointLogSize;
+    }
+
+    /**
+     * @param syncOnWrite
+     *            if <code>true</code>, the default, writes do not return until they are on disk. If
+     *            <code>false</code> a crash may lose the most recent writes, but never corrupts the log.
+     */
+    public void setSyncOnWrite(boolean syncOnWrite) {
+        this.syncOnWrite = syncOnWrite;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T merge(T object) {
+        return write(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T persist(T object) {
+        return write(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public T store(T entity) {
+        return write(entity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void remove(ID id) {
+        byte[] payload = idSerializer.serialize(id);
+        long position;
+        writeLock.lock();
+        try {
+            remove(id, new Append(WriteAheadLog.REMOVE, payload));
+            position = appended;
+            checkpointIfNeeded();
+        } finally {
+            writeLock.unlock();
+        }
+        if (syncOnWrite) {
+            log.sync(position);
+        }
+    }
+
+    /**
+     * Write a snapshot of all entities and truncate the log. This is done automatically once the log has grown
+     * to {@link #setCheckpointLogSize(long) checkpointLogSize} bytes. Writes are blocked during the checkpoint,
+     * reads are not.
+     */
+    public void checkpoint() {
+        writeLock.lock();
+        try {
+            final List<T> entities = new ArrayList<T>(findAll());
+            log.checkpoint(new AbstractList<byte[]>() {
+                @Override
+                public byte[] get(int index) {
+                    return serializer.serialize(entities.get(index));
+                }
+
+                @Override
+                public int size() {
+                    return entities.size();
+                }
+            });
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Flush the log to disk and close it. The repository must not be written to afterwards.
+     * 
+     * @throws IOException
+     *             if the log cannot be closed
+     */
+    public void close() throws IOException {
+        writeLock.lock();
+        try {
+            log.close();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private T write(T entity) {
+        // serialize before touching any state, so an entity that cannot be logged is rejected
+        byte[] payload = serializer.serialize(entity);
+        T previous;
+        long position;
+        writeLock.lock();
+        try {
+            previous = put(entity, new Append(WriteAheadLog.PUT, payload));
+            position = appended;
+            checkpointIfNeeded();
+        } finally {
+            writeLock.unlock();
+        }
+        if (syncOnWrite) {
+            log.sync(position);
+        }
+        return previous;
+    }
+
+    private void checkpointIfNeeded() {
+        if (log.size() >= checkpointLogSize) {
+            checkpoint();
+        }
+    }
+
+    /**
+     * Appends a write to the log once it has been validated, before it is applied to memory.
+     */
+    private class Append implements Runnable {
+
+        private final byte operation;
+
+        private final byte[] payload;
+
+        Append(byte operation, byte[] payload) {
+            this.operation = operation;
+            this.payload = payload;
+        }
+
+        public void run() {
+            appended = log.append(operation, payload);
+        }
+    }
+}
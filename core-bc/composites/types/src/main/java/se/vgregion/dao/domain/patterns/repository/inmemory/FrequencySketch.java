@@ -0,0 +1,99 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+/**
+ * Approximate access frequency of keys, kept as a count-min sketch of four rows of 4-bit saturating counters.
+ * All counters are halved once the number of increments reaches ten times the width of the sketch, so the
+ * frequencies follow changes in the workload. Not thread safe.
+ */
+class FrequencySketch {
+
+    private static final int ROWS = 4;
+
+    private static final int MAX_COUNT = 15;
+
+    private static final int[] SEEDS = { 0x97CB3127, 0xB7E15163, 0x9E3779B9, 0x85EBCA6B };
+
+    private final byte[][] counters;
+
+    private final int mask;
+
+    private final int sampleSize;
+
+    private int additions;
+
+    /**
+     * @param expectedKeys
+     *            the number of keys the sketch should tell apart
+     */
+    FrequencySketch(long expectedKeys) {
+        int width = 16;
+        while (width < expectedKeys && width < (1 << 24)) {
+            width <<= 1;
+        }
+        counters = new byte[ROWS][width];
+        mask = width - 1;
+        sampleSize = width * 10;
+    }
+
+    int frequency(Object key) {
+        int hash = spread(key.hashCode());
+        int frequency = MAX_COUNT;
+        for (int row = 0; row < ROWS; row++) {
+            frequency = Math.min(frequency, counters[row][indexOf(hash, row)]);
+        }
+        return frequency;
+    }
+
+    void increment(Object key) {
+        int hash = spread(key.hashCode());
+        boolean added = false;
+        for (int row = 0; row < ROWS; row++) {
+            int index = indexOf(hash, row);
+            if (counters[row][index] < MAX_COUNT) {
+                counters[row][index]++;
+                added = true;
+            }
+        }
+        if (added && ++additions == sampleSize) {
+            reset();
+        }
+    }
+
+    private void reset() {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] >>>= 1;
+            }
+        }
+        additions /= 2;
+    }
+
+    private int indexOf(int hash, int row) {
+        int h = (hash + SEEDS[row]) * SEEDS[row];
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45D9F3B;
+        return h ^ (h >>> 16);
+    }
+}
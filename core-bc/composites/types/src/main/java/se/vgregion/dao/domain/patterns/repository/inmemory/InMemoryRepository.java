@@ -19,21 +19,207 @@
 package se.vgregion.dao.domain.patterns.repository.inmemory;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import se.vgregion.dao.domain.patterns.entity.Entity;
-import se.vgregion.dao.domain.patterns.repository.Repository;
+import se.vgregion.dao.domain.patterns.repository.Page;
+import se.vgregion.dao.domain.patterns.repository.PageRequest;
+import se.vgregion.dao.domain.patterns.repository.PagingRepository;
 
 /**
  * Abstract in-memory repository. Stores entities in a {@link ConcurrentHashMap}
+ * <p/>
+ * Secondary hash indexes can be declared on entity attributes with {@link #addIndex(String)} and
+ * {@link #addUniqueIndex(String)}. Indexes are maintained on every write and make
+ * {@link #findByAttribute(String, Object)} a constant time lookup instead of a scan of all entities.
+ * <p/>
+ * {@link #findPage(PageRequest)} selects a page in a single pass over the entities, keeping only the best
+ * candidates in a bounded heap, so every keyset page costs the same. IDs and sort attribute values must be
+ * {@link Comparable}.
  */
 public class InMemoryRepository<T extends Entity<ID>, ID extends Serializable> implements
-        Repository<T, ID> {
+        PagingRepository<T, ID> {
+
+    private static final int LOCK_STRIPES = 64;
 
     private Map<ID, T> entities = new ConcurrentHashMap<ID, T>();
 
+    private final ConcurrentMap<String, AttributeIndex<ID>> indexes =
+            new ConcurrentHashMap<String, AttributeIndex<ID>>();
+
+    private final ConcurrentMap<String, AttributeAccessor> accessors =
+            new ConcurrentHashMap<String, AttributeAccessor>();
+
+    private final Lock[] locks = new Lock[LOCK_STRIPES];
+
+    /**
+     * Default constructor.
+     */
+    public InMemoryRepository() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Declare non-unique indexes, e.g. from a Spring bean definition.
+     * 
+     * @param attributeNames
+     *            the attributes to index
+     */
+    public void setIndexedAttributes(Collection<String> attributeNames) {
+        for (String attributeName : attributeNames) {
+            addIndex(attributeName);
+        }
+    }
+
+    /**
+     * Declare unique indexes, e.g. from a Spring bean definition.
+     * 
+     * @param attributeNames
+     *            the attributes to index
+     */
+    public void setUniqueAttributes(Collection<String> attributeNames) {
+        for (String attributeName : attributeNames) {
+            addUniqueIndex(attributeName);
+        }
+    }
+
+    /**
+     * Add a non-unique hash index on <code>attributeName</code>. Entities already in the repository are indexed
+     * immediately.
+     * 
+     * @param attributeName
+     *            the attribute to index, nested attributes are separated by a dot
+     */
+    public void addIndex(String attributeName) {
+        addIndex(new AttributeIndex<ID>(attributeName, false));
+    }
+
+    /**
+     * Add a unique hash index on <code>attributeName</code>. Writes that would give two entities the same value
+     * are rejected with an {@link IllegalArgumentException}. Entities already in the repository are indexed
+     * immediately.
+     * 
+     * @param attributeName
+     *            the attribute to index, nested attributes are separated by a dot
+     */
+    public void addUniqueIndex(String attributeName) {
+        addIndex(new AttributeIndex<ID>(attributeName, true));
+    }
+
+    private void addIndex(AttributeIndex<ID> index) {
+        lockAll();
+        try {
+            if (indexes.containsKey(index.getAttributeName())) {
+                throw new IllegalStateException("Attribute '" + index.getAttributeName() + "' is already indexed");
+            }
+            for (Map.Entry<ID, T> entry : entities.entrySet()) {
+                Object key = index.keyOf(entry.getValue());
+                index.reserve(entry.getKey(), key);
+                index.put(entry.getKey(), key);
+            }
+            indexes.put(index.getAttributeName(), index);
+        } finally {
+            unlockAll();
+        }
+    }
+
+    /**
+     * Find all entities where <code>attributeName</code> equals <code>value</code>. Indexed attributes are
+     * resolved from the index, other attributes by comparing against every entity in the repository.
+     * 
+     * @param attributeName
+     *            the attribute to match, nested attributes are separated by a dot
+     * @param value
+     *            the value to match, may be <code>null</code>
+     * @return the matching entities
+     */
+    public Collection<T> findByAttribute(String attributeName, Object value) {
+        List<T> result = new ArrayList<T>();
+        AttributeIndex<ID> index = indexes.get(attributeName);
+        if (index != null) {
+            for (ID id : index.lookup(value)) {
+                T entity = entities.get(id);
+                if (entity != null) {
+                    result.add(entity);
+                }
+            }
+            return result;
+        }
+        AttributeAccessor accessor = accessorFor(attributeName);
+        for (T entity : entities.values()) {
+            Object attribute = accessor.get(entity);
+            if (value == null ? attribute == null : value.equals(attribute)) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public Page<T> findPage(PageRequest request) {
+        AttributeAccessor accessor = request.getSortAttribute() == null ? null : accessorFor(request
+                .getSortAttribute());
+        final Comparator<PageEntry<T>> order = request.isAscending() ? PageEntry.<T> ascending() : Collections
+                .reverseOrder(PageEntry.<T> ascending());
+        PageEntry<T> last = null;
+        if (request.isKeyset() && !request.isFirst()) {
+            last = new PageEntry<T>(request.getLastSortValue(), request.getLastId(), null);
+        }
+        // keep the best 'limit' entries, with the one that would be dropped first at the head of the queue
+        int limit = request.getOffset() + request.getSize() + 1;
+        PriorityQueue<PageEntry<T>> best = new PriorityQueue<PageEntry<T>>(Math.min(limit, 1024) + 1, Collections
+                .reverseOrder(order));
+        for (T entity : entities.values()) {
+            ID id = entity.getId();
+            PageEntry<T> entry = new PageEntry<T>(accessor == null ? id : accessor.get(entity), id, entity);
+            if (last != null && order.compare(entry, last) <= 0) {
+                continue;
+            }
+            if (best.size() < limit) {
+                best.add(entry);
+            } else if (order.compare(entry, best.peek()) < 0) {
+                best.poll();
+                best.add(entry);
+            }
+        }
+        List<PageEntry<T>> sorted = new ArrayList<PageEntry<T>>(best);
+        Collections.sort(sorted, order);
+        List<T> content = new ArrayList<T>(request.getSize());
+        int end = Math.min(sorted.size(), request.getOffset() + request.getSize());
+        for (int i = request.getOffset(); i < end; i++) {
+            content.add(sorted.get(i).entity);
+        }
+        PageRequest next = null;
+        if (sorted.size() == limit) {
+            PageEntry<T> lastOnPage = sorted.get(end - 1);
+            next = request.next(lastOnPage.sortValue, lastOnPage.id);
+        }
+        return new Page<T>(content, next);
+    }
+
+    private AttributeAccessor accessorFor(String attributeName) {
+        AttributeAccessor accessor = accessors.get(attributeName);
+        if (accessor == null) {
+            accessor = new AttributeAccessor(attributeName);
+            accessors.put(attributeName, accessor);
+        }
+        return accessor;
+    }
+
     /**
      * {@inheritDoc}
      * 
@@ -56,6 +242,20 @@ public class InMemoryRepository<T extends Entity<ID>, ID extends Serializable> i
         return entities.get(id);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public List<T> findAllById(Collection<ID> ids) {
+        List<T> result = new ArrayList<T>(ids.size());
+        for (ID id : ids) {
+            T entity = entities.get(id);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -76,14 +276,14 @@ public class InMemoryRepository<T extends Entity<ID>, ID extends Serializable> i
      * {@inheritDoc}
      */
     public T merge(T object) {
-        return entities.put(object.getId(), object);
+        return put(object, null);
     }
 
     /**
      * {@inheritDoc}
      */
     public T persist(T object) {
-        return entities.put(object.getId(), object);
+        return put(object, null);
     }
 
     /**
@@ -99,21 +299,136 @@ public class InMemoryRepository<T extends Entity<ID>, ID extends Serializable> i
      * {@inheritDoc}
      */
     public void remove(T object) {
-        entities.remove(object.getId());
+        remove(object.getId());
     }
 
     /**
      * {@inheritDoc}
      */
     public void remove(ID id) {
-        entities.remove(id);
+        remove(id, null);
+    }
+
+    /**
+     * Remove the entity with <code>id</code>, running <code>beforeWrite</code> with the lock of the ID held just
+     * before the entity is removed. An exception thrown by <code>beforeWrite</code> cancels the removal.
+     */
+    void remove(ID id, Runnable beforeWrite) {
+        Lock lock = lockFor(id);
+        lock.lock();
+        try {
+            if (beforeWrite != null) {
+                beforeWrite.run();
+            }
+            entities.remove(id);
+            for (AttributeIndex<ID> index : indexes.values()) {
+                index.remove(id);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * {@inheritDoc}
      */
     public T store(T entity) {
-        return entities.put(entity.getId(), entity);
+        return put(entity, null);
+    }
+
+    /**
+     * Store <code>entity</code>, running <code>beforeWrite</code> with the lock of the ID held once the unique
+     * indexes have accepted the entity and just before it becomes visible. An exception thrown by
+     * <code>beforeWrite</code> cancels the write.
+     */
+    T put(T entity, Runnable beforeWrite) {
+        ID id = entity.getId();
+        Lock lock = lockFor(id);
+        lock.lock();
+        try {
+            if (indexes.isEmpty()) {
+                if (beforeWrite != null) {
+                    beforeWrite.run();
+                }
+                return entities.put(id, entity);
+            }
+            List<AttributeIndex<ID>> touched = new ArrayList<AttributeIndex<ID>>(indexes.size());
+            List<Object> keys = new ArrayList<Object>(indexes.size());
+            try {
+                for (AttributeIndex<ID> index : indexes.values()) {
+                    Object key = index.keyOf(entity);
+                    index.reserve(id, key);
+                    touched.add(index);
+                    keys.add(key);
+                }
+                if (beforeWrite != null) {
+                    beforeWrite.run();
+                }
+            } catch (RuntimeException e) {
+                for (int i = 0; i < touched.size(); i++) {
+                    touched.get(i).release(id, keys.get(i));
+                }
+                throw e;
+            }
+            T previous = entities.put(id, entity);
+            for (int i = 0; i < touched.size(); i++) {
+                touched.get(i).put(id, keys.get(i));
+            }
+            return previous;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Lock lockFor(ID id) {
+        int h = id.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return locks[h & (LOCK_STRIPES - 1)];
+    }
+
+    private void lockAll() {
+        for (Lock lock : locks) {
+            lock.lock();
+        }
+    }
+
+    private void unlockAll() {
+        for (Lock lock : locks) {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * An entity with its position in the page order.
+     */
+    private static final class PageEntry<T> {
+
+        @SuppressWarnings("rawtypes")
+        private static final Comparator ASCENDING = new Comparator<PageEntry<?>>() {
+            @SuppressWarnings("unchecked")
+            public int compare(PageEntry<?> left, PageEntry<?> right) {
+                int result = ((Comparable<Object>) left.sortValue).compareTo(right.sortValue);
+                return result != 0 ? result : ((Comparable<Object>) left.id).compareTo(right.id);
+            }
+        };
+
+        private final Object sortValue;
+
+        private final Object id;
+
+        private final T entity;
+
+        PageEntry(Object sortValue, Object id, T entity) {
+            this.sortValue = sortValue;
+            this.id = id;
+            this.entity = entity;
+        }
+
+        @SuppressWarnings("unchecked")
+        static <T> Comparator<PageEntry<T>> ascending() {
+            return ASCENDING;
+        }
     }
 
 }
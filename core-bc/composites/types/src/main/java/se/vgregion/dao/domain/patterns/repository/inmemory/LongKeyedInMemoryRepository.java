@@ -0,0 +1,165 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+import se.vgregion.dao.domain.patterns.repository.Repository;
+
+/**
+ * In-memory repository specialized for entities with <code>Long</code> IDs. Entities are stored in a
+ * {@link ConcurrentLongHashMap}, an open addressing map keyed by primitive <code>long</code>, which saves the
+ * boxed key and the map node that {@link InMemoryRepository} needs for every entry. {@link #find(long)} and
+ * writes of existing IDs do not allocate, and reads take no lock.
+ * 
+ * @param <T>
+ *            The Entity type
+ */
+public class LongKeyedInMemoryRepository<T extends Entity<Long>> implements Repository<T, Long> {
+
+    private final ConcurrentLongHashMap<T> entities = new ConcurrentLongHashMap<T>();
+
+    /**
+     * @return the number of entities in the repository
+     */
+    public int size() {
+        return entities.size();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * This is a no-op operation with the in-memory repository
+     */
+    public void clear() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean contains(T entity) {
+        T stored = entities.get(entity.getId());
+        return stored != null && stored.equals(entity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T find(Long id) {
+        return entities.get(id);
+    }
+
+    /**
+     * Finds the instance of <code>T</code> identified by it's <code>id</code> without boxing the id.
+     * 
+     * @param id
+     *            The id of the entity
+     * @return an object of <code>T</code>
+     */
+    public T find(long id) {
+        return entities.get(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public List<T> findAllById(Collection<Long> ids) {
+        List<T> result = new ArrayList<T>(ids.size());
+        for (Long id : ids) {
+            T entity = entities.get(id);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The returned collection is a copy.
+     */
+    public Collection<T> findAll() {
+        return entities.values();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * This is a no-op operation with the in-memory repository
+     */
+    public void flush() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T merge(T object) {
+        return entities.put(object.getId(), object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T persist(T object) {
+        return entities.put(object.getId(), object);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Not supported by the in-memory repository
+     */
+    public void refresh(T object) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(T object) {
+        entities.remove(object.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(Long id) {
+        entities.remove(id);
+    }
+
+    /**
+     * Delete by entity ID without boxing the id.
+     * 
+     * @param id
+     *            The id of the entity
+     */
+    public void remove(long id) {
+        entities.remove(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T store(T entity) {
+        return entities.put(entity.getId(), entity);
+    }
+}
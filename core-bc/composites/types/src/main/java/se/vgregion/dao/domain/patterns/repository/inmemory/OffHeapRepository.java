@@ -0,0 +1,411 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+import se.vgregion.dao.domain.patterns.repository.Repository;
+
+/**
+ * In-memory repository that keeps its entities outside the Java heap. Entities are serialized into direct
+ * {@link ByteBuffer} chunks and decoded again on every read, so the garbage collector never has to trace the
+ * entity graphs. The heap only holds the IDs, in an open addressing table next to a <code>long[]</code> of
+ * off-heap addresses, with no per-entity node or boxed address.
+ * <p/>
+ * Entities returned by this repository are copies; changing them has no effect until they are stored again.
+ * Space freed by updates and removals is reclaimed once more than half of the allocated space is garbage, by
+ * sliding the live entities towards the start of the chunks in place, so compaction needs no memory beyond the
+ * chunks already held. The chunks emptied by compaction are kept for reuse up to a small pool, since direct
+ * memory is only returned to the operating system when the garbage collector gets around to it; the rest are
+ * released.
+ * <p/>
+ * Any number of reads can run concurrently; writes are serialized.
+ * 
+ * @param <T>
+ *            The Entity type
+ * @param <ID>
+ *            The Id type
+ */
+public class OffHeapRepository<T extends Entity<ID>, ID extends Serializable> implements Repository<T, ID> {
+
+    private static final int DEFAULT_CHUNK_SIZE = 16 * 1024 * 1024;
+
+    private static final int LENGTH_SIZE = 4;
+
+    private static final int MAX_POOLED_CHUNKS = 2;
+
+    private final Serializer<T> serializer;
+
+    private final int chunkSize;
+
+    private final AddressTable<ID> addresses = new AddressTable<ID>();
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+
+    private final List<ByteBuffer> pool = new LinkedList<ByteBuffer>();
+
+    private long allocatedBytes;
+
+    private long liveBytes;
+
+    /**
+     * Create a repository using Java serialization and 16 MB chunks.
+     */
+    public OffHeapRepository() {
+        this(new JavaSerializer<T>(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * @param serializer
+     *            used to encode entities into off-heap memory
+     * @param chunkSize
+     *            the size in bytes of each direct buffer; entities larger than this get a buffer of their own
+     */
+    public OffHeapRepository(Serializer<T> serializer, int chunkSize) {
+        this.serializer = serializer;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return the number of entities in the repository
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return addresses.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes of off-heap memory in use for entities, including garbage not yet compacted
+     */
+    public long getAllocatedBytes() {
+        lock.readLock().lock();
+        try {
+            return allocatedBytes;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of bytes of direct memory held by the repository, including pooled chunks
+     */
+    public long getReservedBytes() {
+        lock.readLock().lock();
+        try {
+            long reserved = 0;
+            for (ByteBuffer chunk : chunks) {
+                reserved += chunk.capacity();
+            }
+            return reserved + (long) pool.size() * chunkSize;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * This is a no-op operation with the in-memory repository
+     */
+    public void clear() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean contains(T entity) {
+        T stored = find(entity.getId());
+        return stored != null && stored.equals(entity);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The entity is decoded from off-heap memory; each call returns a new instance.
+     */
+    public T find(ID id) {
+        lock.readLock().lock();
+        try {
+            long address = addresses.get(id);
+            return address == AddressTable.NO_ADDRESS ? null : serializer.deserialize(read(address));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The read lock is taken once for all entities.
+     */
+    public List<T> findAllById(Collection<ID> ids) {
+        lock.readLock().lock();
+        try {
+            List<T> result = new ArrayList<T>(ids.size());
+            for (ID id : ids) {
+                long address = addresses.get(id);
+                if (address != AddressTable.NO_ADDRESS) {
+                    result.add(serializer.deserialize(read(address)));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * All entities are decoded into a new list.
+     */
+    public Collection<T> findAll() {
+        lock.readLock().lock();
+        try {
+            List<T> result = new ArrayList<T>(addresses.size());
+            for (int slot = 0; slot < addresses.capacity(); slot++) {
+                if (addresses.keyAt(slot) != null) {
+                    result.add(serializer.deserialize(read(addresses.addressAt(slot))));
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * This is a no-op operation with the in-memory repository
+     */
+    public void flush() {
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @return the given entity
+     */
+    public T merge(T object) {
+        return put(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @return the given entity
+     */
+    public T persist(T object) {
+        return put(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Not supported by the in-memory repository
+     */
+    public void refresh(T object) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(T object) {
+        remove(object.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(ID id) {
+        lock.writeLock().lock();
+        try {
+            long address = addresses.remove(id);
+            if (address != AddressTable.NO_ADDRESS) {
+                free(address);
+                compactIfWasteful();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * @return the given entity
+     */
+    public T store(T entity) {
+        return put(entity);
+    }
+
+    private T put(T entity) {
+        ID id = entity.getId();
+        if (id == null) {
+            throw new NullPointerException("Entity id must not be null");
+        }
+        byte[] bytes = serializer.serialize(entity);
+        lock.writeLock().lock();
+        try {
+            long previous = addresses.put(id, write(bytes));
+            if (previous != AddressTable.NO_ADDRESS) {
+                free(previous);
+                compactIfWasteful();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        return entity;
+    }
+
+    private byte[] read(long address) {
+        ByteBuffer chunk = chunks.get(chunkOf(address)).duplicate();
+        chunk.position(offsetOf(address));
+        byte[] bytes = new byte[chunk.getInt()];
+        chunk.get(bytes);
+        return bytes;
+    }
+
+    private long write(byte[] bytes) {
+        int required = LENGTH_SIZE + bytes.length;
+        ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+        if (chunk == null || chunk.remaining() < required) {
+            chunk = newChunk(required);
+            chunks.add(chunk);
+        }
+        long address = address(chunks.size() - 1, chunk.position());
+        chunk.putInt(bytes.length);
+        chunk.put(bytes);
+        allocatedBytes += required;
+        liveBytes += required;
+        return address;
+    }
+
+    private void free(long address) {
+        liveBytes -= LENGTH_SIZE + chunks.get(chunkOf(address)).getInt(offsetOf(address));
+    }
+
+    private void compactIfWasteful() {
+        if (allocatedBytes - liveBytes > liveBytes && allocatedBytes > chunkSize) {
+            compact();
+        }
+    }
+
+    /**
+     * Slide all live entities, in address order, to the lowest free position of the same chunk list. An entity
+     * never moves past its own position, so it is copied over garbage or over entities already moved, and the
+     * chunks left empty at the end are pooled or released.
+     */
+    private void compact() {
+        int[] slots = slotsByAddress();
+        int chunk = 0;
+        int offset = 0;
+        for (int slot : slots) {
+            long address = addresses.addressAt(slot);
+            byte[] bytes = read(address);
+            int required = LENGTH_SIZE + bytes.length;
+            // an entity larger than a chunk only fits its own chunk, which is never past its position
+            while (chunks.get(chunk).capacity() - offset < required) {
+                chunks.get(chunk).position(offset);
+                chunk++;
+                offset = 0;
+            }
+            ByteBuffer target = chunks.get(chunk);
+            target.putInt(offset, bytes.length);
+            target.position(offset + LENGTH_SIZE);
+            target.put(bytes);
+            addresses.setAddressAt(slot, address(chunk, offset));
+            offset += required;
+        }
+        int used = slots.length == 0 ? 0 : chunk + 1;
+        if (used > 0) {
+            chunks.get(chunk).position(offset);
+        }
+        while (chunks.size() > used) {
+            release(chunks.remove(chunks.size() - 1));
+        }
+        allocatedBytes = liveBytes;
+    }
+
+    /**
+     * @return the occupied slots of the address table, ordered by the address they hold
+     */
+    private int[] slotsByAddress() {
+        long[] sorted = new long[addresses.size()];
+        int n = 0;
+        for (int slot = 0; slot < addresses.capacity(); slot++) {
+            if (addresses.keyAt(slot) != null) {
+                sorted[n++] = addresses.addressAt(slot);
+            }
+        }
+        Arrays.sort(sorted);
+        int[] slots = new int[sorted.length];
+        for (int slot = 0; slot < addresses.capacity(); slot++) {
+            if (addresses.keyAt(slot) != null) {
+                slots[Arrays.binarySearch(sorted, addresses.addressAt(slot))] = slot;
+            }
+        }
+        return slots;
+    }
+
+    private void release(ByteBuffer chunk) {
+        if (chunk.capacity() == chunkSize && pool.size() < MAX_POOLED_CHUNKS) {
+            chunk.clear();
+            pool.add(chunk);
+        }
+    }
+
+    private ByteBuffer newChunk(int required) {
+        if (required > chunkSize) {
+            return ByteBuffer.allocateDirect(required);
+        }
+        if (!pool.isEmpty()) {
+            return pool.remove(0);
+        }
+        return ByteBuffer.allocateDirect(chunkSize);
+    }
+
+    private static long address(int chunk, int offset) {
+        return ((long) chunk << 32) | offset;
+    }
+
+    private static int chunkOf(long address) {
+        return (int) (address >>> 32);
+    }
+
+    private static int offsetOf(long address) {
+        return (int) address;
+    }
+}
@@ -0,0 +1,430 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable hash map implemented as a hash array mapped trie. Every update returns a new map that shares all
+ * unchanged nodes with the original, so an update costs O(log32 n) node copies and any number of versions can be
+ * held at the same time. A version that is no longer referenced is reclaimed by the garbage collector.
+ *
+ * @param <K>
+ *            the key type
+ * @param <V>
+ *            the value type
+ */
+final class PersistentHashMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+    private static final int BITS = 5;
+
+    private static final int MASK = (1 << BITS) - 1;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentHashMap EMPTY = new PersistentHashMap(null, 0);
+
+    private final BitmapNode root;
+
+    private final int size;
+
+    private PersistentHashMap(BitmapNode root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentHashMap<K, V> empty() {
+        return EMPTY;
+    }
+
+    int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        if (root == null) {
+            return null;
+        }
+        int hash = hash(key);
+        Object node = root;
+        int shift = 0;
+        while (true) {
+            if (node instanceof BitmapNode) {
+                BitmapNode bitmapNode = (BitmapNode) node;
+                int bit = bitpos(hash, shift);
+                if ((bitmapNode.bitmap & bit) == 0) {
+                    return null;
+                }
+                node = bitmapNode.slots[index(bitmapNode.bitmap, bit)];
+                shift += BITS;
+            } else if (node instanceof Leaf) {
+                Leaf leaf = (Leaf) node;
+                return leaf.hash == hash && key.equals(leaf.key) ? (V) leaf.value : null;
+            } else {
+                CollisionNode collisionNode = (CollisionNode) node;
+                int i = collisionNode.find(hash, key);
+                return i < 0 ? null : (V) collisionNode.leaves[i].value;
+            }
+        }
+    }
+
+    PersistentHashMap<K, V> put(K key, V value) {
+        Leaf leaf = new Leaf(hash(key), key, value);
+        boolean[] added = new boolean[1];
+        BitmapNode newRoot = put(root == null ? BitmapNode.EMPTY : root, 0, leaf, added);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentHashMap<K, V>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    PersistentHashMap<K, V> remove(Object key) {
+        if (root == null) {
+            return this;
+        }
+        Object newRoot = remove(root, 0, hash(key), key);
+        if (newRoot == root) {
+            return this;
+        }
+        if (newRoot == null) {
+            return empty();
+        }
+        if (newRoot instanceof Leaf) {
+            newRoot = new BitmapNode(bitpos(((Leaf) newRoot).hash, 0), new Object[] { newRoot });
+        }
+        return new PersistentHashMap<K, V>((BitmapNode) newRoot, size - 1);
+    }
+
+    /**
+     * @return an iterator over the entries of this version. The iterator does not support removal.
+     */
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new EntryIterator<K, V>(root);
+    }
+
+    private static BitmapNode put(BitmapNode node, int shift, Leaf leaf, boolean[] added) {
+        int bit = bitpos(leaf.hash, shift);
+        int idx = index(node.bitmap, bit);
+        if ((node.bitmap & bit) == 0) {
+            added[0] = true;
+            return node.insert(idx, bit, leaf);
+        }
+        Object slot = node.slots[idx];
+        if (slot instanceof Leaf) {
+            Leaf existing = (Leaf) slot;
+            if (existing.hash == leaf.hash && existing.key.equals(leaf.key)) {
+                return existing.value == leaf.value ? node : node.replace(idx, leaf);
+            }
+            added[0] = true;
+            return node.replace(idx, merge(existing, leaf, shift + BITS));
+        }
+        Object child;
+        if (slot instanceof BitmapNode) {
+            child = put((BitmapNode) slot, shift + BITS, leaf, added);
+        } else {
+            child = put((CollisionNode) slot, shift + BITS, leaf, added);
+        }
+        return child == slot ? node : node.replace(idx, child);
+    }
+
+    private static Object put(CollisionNode node, int shift, Leaf leaf, boolean[] added) {
+        if (node.hash != leaf.hash) {
+            BitmapNode wrapper = new BitmapNode(bitpos(node.hash, shift), new Object[] { node });
+            return put(wrapper, shift, leaf, added);
+        }
+        int i = node.find(leaf.hash, leaf.key);
+        if (i >= 0) {
+            if (node.leaves[i].value == leaf.value) {
+                return node;
+            }
+            Leaf[] leaves = node.leaves.clone();
+            leaves[i] = leaf;
+            return new CollisionNode(node.hash, leaves);
+        }
+        added[0] = true;
+        Leaf[] leaves = new Leaf[node.leaves.length + 1];
+        System.arraycopy(node.leaves, 0, leaves, 0, node.leaves.length);
+        leaves[node.leaves.length] = leaf;
+        return new CollisionNode(node.hash, leaves);
+    }
+
+    private static Object merge(Leaf a, Leaf b, int shift) {
+        if (a.hash == b.hash) {
+            return new CollisionNode(a.hash, new Leaf[] { a, b });
+        }
+        int bitA = bitpos(a.hash, shift);
+        int bitB = bitpos(b.hash, shift);
+        if (bitA == bitB) {
+            return new BitmapNode(bitA, new Object[] { merge(a, b, shift + BITS) });
+        }
+        Object[] slots = index(bitA | bitB, bitA) == 0 ? new Object[] { a, b } : new Object[] { b, a };
+        return new BitmapNode(bitA | bitB, slots);
+    }
+
+    /**
+     * @return the node without <code>key</code>, <code>null</code> if the node became empty or a single
+     *         {@link Leaf} if only one entry remains, so that the parent can inline it
+     */
+    private static Object remove(BitmapNode node, int shift, int hash, Object key) {
+        int bit = bitpos(hash, shift);
+        if ((node.bitmap & bit) == 0) {
+            return node;
+        }
+        int idx = index(node.bitmap, bit);
+        Object slot = node.slots[idx];
+        Object child;
+        if (slot instanceof Leaf) {
+            Leaf leaf = (Leaf) slot;
+            child = leaf.hash == hash && key.equals(leaf.key) ? null : slot;
+        } else if (slot instanceof BitmapNode) {
+            child = remove((BitmapNode) slot, shift + BITS, hash, key);
+        } else {
+            child = remove((CollisionNode) slot, hash, key);
+        }
+        if (child == slot) {
+            return node;
+        }
+        if (child == null) {
+            if (node.slots.length == 1) {
+                return null;
+            }
+            if (node.slots.length == 2 && node.slots[idx ^ 1] instanceof Leaf) {
+                return node.slots[idx ^ 1];
+            }
+            return node.delete(idx, bit);
+        }
+        if (child instanceof Leaf && node.slots.length == 1) {
+            return child;
+        }
+        return node.replace(idx, child);
+    }
+
+    private static Object remove(CollisionNode node, int hash, Object key) {
+        int i = node.find(hash, key);
+        if (i < 0) {
+            return node;
+        }
+        if (node.leaves.length == 2) {
+            return node.leaves[i ^ 1];
+        }
+        Leaf[] leaves = new Leaf[node.leaves.length - 1];
+        System.arraycopy(node.leaves, 0, leaves, 0, i);
+        System.arraycopy(node.leaves, i + 1, leaves, i, leaves.length - i);
+        return new CollisionNode(node.hash, leaves);
+    }
+
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    private static int bitpos(int hash, int shift) {
+        return 1 << ((hash >>> shift) & MASK);
+    }
+
+    private static int index(int bitmap, int bit) {
+        return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    /**
+     * An entry of the map.
+     */
+    private static final class Leaf implements Map.Entry<Object, Object> {
+
+        private final int hash;
+
+        private final Object key;
+
+        private final Object value;
+
+        Leaf(int hash, Object key, Object value) {
+            this.hash = hash;
+            this.key = key;
+            this.value = value;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+
+        public Object setValue(Object value) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Map.Entry<?, ?>)) {
+                return false;
+            }
+            Map.Entry<?, ?> entry = (Map.Entry<?, ?>) other;
+            return key.equals(entry.getKey())
+                    && (value == null ? entry.getValue() == null : value.equals(entry.getValue()));
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ (value == null ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + value;
+        }
+    }
+
+    /**
+     * Inner node holding up to 32 slots, each either a {@link Leaf} or a child node. Only occupied slots are
+     * allocated; the bitmap tells which.
+     */
+    private static final class BitmapNode {
+
+        private static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        private final int bitmap;
+
+        private final Object[] slots;
+
+        BitmapNode(int bitmap, Object[] slots) {
+            this.bitmap = bitmap;
+            this.slots = slots;
+        }
+
+        BitmapNode insert(int idx, int bit, Object slot) {
+            Object[] copy = new Object[slots.length + 1];
+            System.arraycopy(slots, 0, copy, 0, idx);
+            copy[idx] = slot;
+            System.arraycopy(slots, idx, copy, idx + 1, slots.length - idx);
+            return new BitmapNode(bitmap | bit, copy);
+        }
+
+        BitmapNode replace(int idx, Object slot) {
+            Object[] copy = slots.clone();
+            copy[idx] = slot;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        BitmapNode delete(int idx, int bit) {
+            Object[] copy = new Object[slots.length - 1];
+            System.arraycopy(slots, 0, copy, 0, idx);
+            System.arraycopy(slots, idx + 1, copy, idx, copy.length - idx);
+            return new BitmapNode(bitmap & ~bit, copy);
+        }
+    }
+
+    /**
+     * Leaves whose keys have the same full hash code.
+     */
+    private static final class CollisionNode {
+
+        private final int hash;
+
+        private final Leaf[] leaves;
+
+        CollisionNode(int hash, Leaf[] leaves) {
+            this.hash = hash;
+            this.leaves = leaves;
+        }
+
+        int find(int hash, Object key) {
+            if (hash == this.hash) {
+                for (int i = 0; i < leaves.length; i++) {
+                    if (key.equals(leaves[i].key)) {
+                        return i;
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+
+    /**
+     * Depth first traversal using an explicit stack of slot arrays.
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+
+        private final List<Object[]> arrays = new ArrayList<Object[]>();
+
+        private final List<Integer> positions = new ArrayList<Integer>();
+
+        private Leaf next;
+
+        EntryIterator(BitmapNode root) {
+            if (root != null) {
+                push(root.slots);
+            }
+            advance();
+        }
+
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<?, ?> result = next;
+            advance();
+            return (Map.Entry<K, V>) result;
+        }
+
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private void push(Object[] array) {
+            arrays.add(array);
+            positions.add(0);
+        }
+
+        private void advance() {
+            next = null;
+            while (!arrays.isEmpty()) {
+                int top = arrays.size() - 1;
+                Object[] array = arrays.get(top);
+                int position = positions.get(top);
+                if (position == array.length) {
+                    arrays.remove(top);
+                    positions.remove(top);
+                    continue;
+                }
+                positions.set(top, position + 1);
+                Object slot = array[position];
+                if (slot instanceof Leaf) {
+                    next = (Leaf) slot;
+                    return;
+                } else if (slot instanceof BitmapNode) {
+                    push(((BitmapNode) slot).slots);
+                } else {
+                    push(((CollisionNode) slot).leaves);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+/**
+ * Converts objects to and from bytes, for repositories that keep entities outside the Java heap or on disk.
+ * 
+ * @param <T>
+ *            the type of the serialized objects
+ */
+public interface Serializer<T> {
+
+    /**
+     * @param object
+     *            the object to serialize
+     * @return the serialized form of <code>object</code>
+     */
+    byte[] serialize(T object);
+
+    /**
+     * @param bytes
+     *            a serialized form produced by {@link #serialize(Object)}
+     * @return a new instance equal to the one that was serialized
+     */
+    T deserialize(byte[] bytes);
+}
@@ -0,0 +1,316 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+import se.vgregion.dao.domain.patterns.repository.Repository;
+
+/**
+ * In-memory repository partitioned by ID hash into a fixed number of shards, each guarded by its own lock.
+ * <p/>
+ * Writers lock only the shard of the entity they write, so writers of unrelated IDs rarely contend.
+ * {@link #storeAll(Collection)} and {@link #removeAll(Collection)} apply a batch of writes atomically: they lock
+ * every shard the batch touches, in ascending shard order so that concurrent batches cannot deadlock, and release
+ * them when the whole batch has been applied. {@link #findAll()} locks all shards and therefore never observes
+ * half of a batch.
+ * <p/>
+ * {@link #find(Serializable)} takes no lock and always returns the latest committed entity, but two separate
+ * calls to find may straddle a batch.
+ * 
+ * @param <T>
+ *            The Entity type
+ * @param <ID>
+ *            The Id type
+ */
+public class ShardedInMemoryRepository<T extends Entity<ID>, ID extends Serializable> implements
+        Repository<T, ID> {
+
+    private final Shard<ID, T>[] shards;
+
+    private final int mask;
+
+    /**
+     * Create a repository with four shards per available processor.
+     */
+    public ShardedInMemoryRepository() {
+        this(Runtime.getRuntime().availableProcessors() * 4);
+    }
+
+    /**
+     * @param shardCount
+     *            the minimum number of shards, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public ShardedInMemoryRepository(int shardCount) {
+        int count = 1;
+        while (count < shardCount) {
+            count <<= 1;
+        }
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard<ID, T>();
+        }
+        mask = count - 1;
+    }
+
+    /**
+     * Store all entities in one atomic operation. No other writer and no call to {@link #findAll()} can observe
+     * the repository with only some of the entities stored.
+     * 
+     * @param entities
+     *            the entities to store
+     */
+    public void storeAll(Collection<? extends T> entities) {
+        List<List<T>> batches = new ArrayList<List<T>>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            batches.add(null);
+        }
+        for (T entity : entities) {
+            int index = indexOf(entity.getId());
+            List<T> batch = batches.get(index);
+            if (batch == null) {
+                batch = new ArrayList<T>();
+                batches.set(index, batch);
+            }
+            batch.add(entity);
+        }
+        lock(batches);
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                List<T> batch = batches.get(i);
+                if (batch != null) {
+                    for (T entity : batch) {
+                        shards[i].entities.put(entity.getId(), entity);
+                    }
+                }
+            }
+        } finally {
+            unlock(batches);
+        }
+    }
+
+    /**
+     * Remove all entities identified by <code>ids</code> in one atomic operation.
+     * 
+     * @param ids
+     *            the ids of the entities to remove
+     */
+    public void removeAll(Collection<? extends ID> ids) {
+        List<List<ID>> batches = new ArrayList<List<ID>>(shards.length);
+        for (int i = 0; i < shards.length; i++) {
+            batches.add(null);
+        }
+        for (ID id : ids) {
+            int index = indexOf(id);
+            List<ID> batch = batches.get(index);
+            if (batch == null) {
+                batch = new ArrayList<ID>();
+                batches.set(index, batch);
+            }
+            batch.add(id);
+        }
+        lock(batches);
+        try {
+            for (int i = 0; i < shards.length; i++) {
+                List<ID> batch = batches.get(i);
+                if (batch != null) {
+                    for (ID id : batch) {
+                        shards[i].entities.remove(id);
+                    }
+                }
+            }
+        } finally {
+            unlock(batches);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * This is a no-op operation with the in-memory repository
+     */
+    public void clear() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean contains(T entity) {
+        T stored = find(entity.getId());
+        return stored != null && stored.equals(entity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T find(ID id) {
+        return shards[indexOf(id)].entities.get(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The entities are read without locking, as by {@link #find(Serializable)}.
+     */
+    public List<T> findAllById(Collection<ID> ids) {
+        List<T> result = new ArrayList<T>(ids.size());
+        for (ID id : ids) {
+            T entity = shards[indexOf(id)].entities.get(id);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The returned collection is a consistent copy; all shards are locked while it is taken.
+     */
+    public Collection<T> findAll() {
+        for (Shard<ID, T> shard : shards) {
+            shard.lock();
+        }
+        try {
+            int size = 0;
+            for (Shard<ID, T> shard : shards) {
+                size += shard.entities.size();
+            }
+            List<T> result = new ArrayList<T>(size);
+            for (Shard<ID, T> shard : shards) {
+                result.addAll(shard.entities.values());
+            }
+            return result;
+        } finally {
+            for (int i = shards.length - 1; i >= 0; i--) {
+                shards[i].unlock();
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * This is a no-op operation with the in-memory repository
+     */
+    public void flush() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T merge(T object) {
+        return put(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T persist(T object) {
+        return put(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Not supported by the in-memory repository
+     */
+    public void refresh(T object) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(T object) {
+        remove(object.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(ID id) {
+        Shard<ID, T> shard = shards[indexOf(id)];
+        shard.lock();
+        try {
+            shard.entities.remove(id);
+        } finally {
+            shard.unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T store(T entity) {
+        return put(entity);
+    }
+
+    private T put(T entity) {
+        ID id = entity.getId();
+        Shard<ID, T> shard = shards[indexOf(id)];
+        shard.lock();
+        try {
+            return shard.entities.put(id, entity);
+        } finally {
+            shard.unlock();
+        }
+    }
+
+    private void lock(List<? extends List<?>> batches) {
+        for (int i = 0; i < shards.length; i++) {
+            if (batches.get(i) != null) {
+                shards[i].lock();
+            }
+        }
+    }
+
+    private void unlock(List<? extends List<?>> batches) {
+        for (int i = shards.length - 1; i >= 0; i--) {
+            if (batches.get(i) != null) {
+                shards[i].unlock();
+            }
+        }
+    }
+
+    private int indexOf(ID id) {
+        int h = id.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & mask;
+    }
+
+    /**
+     * A partition of the entities and the lock that guards writes to it.
+     */
+    private static final class Shard<ID, T> extends ReentrantLock {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Map<ID, T> entities = new ConcurrentHashMap<ID, T>();
+    }
+}
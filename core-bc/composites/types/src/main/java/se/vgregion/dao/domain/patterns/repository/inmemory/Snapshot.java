@@ -0,0 +1,121 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+
+/**
+ * An immutable, point-in-time view of a {@link VersionedInMemoryRepository}. A snapshot never changes, regardless
+ * of how the repository is updated after it was taken, so it can be iterated or queried repeatedly and always
+ * gives a consistent answer.
+ * 
+ * @param <T>
+ *            The Entity type
+ * @param <ID>
+ *            The Id type
+ */
+public final class Snapshot<T extends Entity<ID>, ID> {
+
+    private final PersistentHashMap<ID, T> entities;
+
+    private final long version;
+
+    Snapshot(PersistentHashMap<ID, T> entities, long version) {
+        this.entities = entities;
+        this.version = version;
+    }
+
+    PersistentHashMap<ID, T> getEntities() {
+        return entities;
+    }
+
+    /**
+     * @return the version of the repository this snapshot was taken from. Every successful write increments the
+     *         version.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the number of entities in this snapshot
+     */
+    public int size() {
+        return entities.size();
+    }
+
+    /**
+     * Finds the instance of <code>T</code> identified by it's <code>ID</code>.
+     * 
+     * @param id
+     *            The id of the entity
+     * @return an object of <code>T</code>, or <code>null</code> if the entity was not present in this snapshot
+     */
+    public T find(ID id) {
+        return entities.get(id);
+    }
+
+    /**
+     * Check if the entity was present in this snapshot.
+     * 
+     * @param entity
+     *            the entity object
+     * @return true if present
+     */
+    public boolean contains(T entity) {
+        T stored = entities.get(entity.getId());
+        return stored != null && stored.equals(entity);
+    }
+
+    /**
+     * @return an unmodifiable collection of all entities in this snapshot. The collection is a view, no entities
+     *         are copied.
+     */
+    public Collection<T> findAll() {
+        return new AbstractCollection<T>() {
+            @Override
+            public Iterator<T> iterator() {
+                final Iterator<Map.Entry<ID, T>> entries = entities.iterator();
+                return new Iterator<T>() {
+                    public boolean hasNext() {
+                        return entries.hasNext();
+                    }
+
+                    public T next() {
+                        return entries.next().getValue();
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entities.size();
+            }
+        };
+    }
+}
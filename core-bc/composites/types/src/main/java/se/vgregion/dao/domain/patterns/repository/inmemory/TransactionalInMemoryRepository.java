@@ -0,0 +1,293 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+import se.vgregion.dao.domain.patterns.repository.Repository;
+
+/**
+ * In-memory repository with optimistic, thread-bound transactions.
+ * <p/>
+ * Writes are not applied to the shared state directly but buffered in a write set bound to the calling thread. A
+ * transaction starts with {@link #begin()}, or implicitly with the first write, and ends with {@link #flush()}
+ * (or {@link #commit()}), which publishes the whole write set atomically, or with {@link #clear()} (or
+ * {@link #rollback()}), which discards it. Until then other threads do not see any of the changes, while the
+ * writing thread reads its own writes.
+ * <p/>
+ * Every committed entity carries a version. The transaction records the version of every entity it reads or
+ * writes and the commit fails with a {@link ConcurrentModificationException} if any of them has been changed by
+ * another transaction in the meantime. The committed state is an immutable {@link PersistentHashMap} that is
+ * replaced on commit, so readers never lock and only committing writers briefly serialize.
+ * 
+ * @param <T>
+ *            The Entity type
+ * @param <ID>
+ *            The Id type
+ */
+public class TransactionalInMemoryRepository<T extends Entity<ID>, ID extends Serializable> implements
+        Repository<T, ID> {
+
+    private volatile PersistentHashMap<ID, Versioned<T>> committed = PersistentHashMap.empty();
+
+    private long lastVersion;
+
+    private final Lock commitLock = new ReentrantLock();
+
+    private final ThreadLocal<Transaction<T, ID>> transactions = new ThreadLocal<Transaction<T, ID>>();
+
+    /**
+     * Start a transaction for the calling thread, so that reads are validated at commit as well. Without an
+     * explicit begin, the transaction starts with the first write and only entities read after that are
+     * validated.
+     */
+    public void begin() {
+        if (transactions.get() == null) {
+            transactions.set(new Transaction<T, ID>());
+        }
+    }
+
+    /**
+     * @return true if the calling thread has a transaction in progress
+     */
+    public boolean isTransactionActive() {
+        return transactions.get() != null;
+    }
+
+    /**
+     * Publish the calling thread's write set atomically and end its transaction.
+     * 
+     * @throws ConcurrentModificationException
+     *             if an entity read or written by the transaction was committed by another transaction after it
+     *             was first accessed. The transaction is rolled back.
+     */
+    public void commit() {
+        Transaction<T, ID> transaction = transactions.get();
+        if (transaction == null) {
+            return;
+        }
+        transactions.remove();
+        if (transaction.writes.isEmpty()) {
+            return;
+        }
+        commitLock.lock();
+        try {
+            PersistentHashMap<ID, Versioned<T>> state = committed;
+            for (Map.Entry<ID, Long> read : transaction.versions.entrySet()) {
+                if (versionOf(state.get(read.getKey())) != read.getValue()) {
+                    throw new ConcurrentModificationException("Entity " + read.getKey()
+                            + " was modified by a concurrent transaction");
+                }
+            }
+            long version = ++lastVersion;
+            for (Map.Entry<ID, T> write : transaction.writes.entrySet()) {
+                if (write.getValue() == null) {
+                    state = state.remove(write.getKey());
+                } else {
+                    state = state.put(write.getKey(), new Versioned<T>(write.getValue(), version));
+                }
+            }
+            committed = state;
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    /**
+     * Discard the calling thread's write set and end its transaction.
+     */
+    public void rollback() {
+        transactions.remove();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Discards all writes of the calling thread that have not been flushed, see {@link #rollback()}.
+     */
+    public void clear() {
+        rollback();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Commits the calling thread's transaction, see {@link #commit()}.
+     */
+    public void flush() {
+        commit();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean contains(T entity) {
+        T stored = find(entity.getId());
+        return stored != null && stored.equals(entity);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Returns the calling thread's own uncommitted write if there is one.
+     */
+    public T find(ID id) {
+        Transaction<T, ID> transaction = transactions.get();
+        if (transaction != null && transaction.writes.containsKey(id)) {
+            return transaction.writes.get(id);
+        }
+        Versioned<T> versioned = committed.get(id);
+        if (transaction != null && !transaction.versions.containsKey(id)) {
+            transaction.versions.put(id, versionOf(versioned));
+        }
+        return versioned == null ? null : versioned.entity;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Every entity is read as by {@link #find(Serializable)}, so all of them are validated when the transaction
+     * commits.
+     */
+    public List<T> findAllById(Collection<ID> ids) {
+        List<T> result = new ArrayList<T>(ids.size());
+        for (ID id : ids) {
+            T entity = find(id);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The returned collection is a copy of the committed state with the calling thread's own writes applied.
+     */
+    public Collection<T> findAll() {
+        Transaction<T, ID> transaction = transactions.get();
+        List<T> result = new ArrayList<T>(committed.size());
+        for (Map.Entry<ID, Versioned<T>> entry : committed) {
+            if (transaction == null || !transaction.writes.containsKey(entry.getKey())) {
+                result.add(entry.getValue().entity);
+            }
+        }
+        if (transaction != null) {
+            for (T entity : transaction.writes.values()) {
+                if (entity != null) {
+                    result.add(entity);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T merge(T object) {
+        return write(object.getId(), object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T persist(T object) {
+        return write(object.getId(), object);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Not supported by the in-memory repository
+     */
+    public void refresh(T object) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(T object) {
+        remove(object.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(ID id) {
+        write(id, null);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T store(T entity) {
+        return write(entity.getId(), entity);
+    }
+
+    private T write(ID id, T entity) {
+        if (id == null) {
+            throw new NullPointerException("Entity id must not be null");
+        }
+        begin();
+        T previous = find(id);
+        transactions.get().writes.put(id, entity);
+        return previous;
+    }
+
+    private static long versionOf(Versioned<?> versioned) {
+        return versioned == null ? 0 : versioned.version;
+    }
+
+    /**
+     * A committed entity and the version of the transaction that committed it.
+     */
+    private static final class Versioned<T> {
+
+        private final T entity;
+
+        private final long version;
+
+        Versioned(T entity, long version) {
+            this.entity = entity;
+            this.version = version;
+        }
+    }
+
+    /**
+     * The write set of a transaction, <code>null</code> marking a removal, and the versions it has seen.
+     */
+    private static final class Transaction<T, ID> {
+
+        private final Map<ID, T> writes = new LinkedHashMap<ID, T>();
+
+        private final Map<ID, Long> versions = new HashMap<ID, Long>();
+    }
+}
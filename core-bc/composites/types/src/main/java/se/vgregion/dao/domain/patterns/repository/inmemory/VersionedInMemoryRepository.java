@@ -0,0 +1,182 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import se.vgregion.dao.domain.patterns.entity.Entity;
+import se.vgregion.dao.domain.patterns.repository.Repository;
+
+/**
+ * Multi-version in-memory repository. Entities are kept in an immutable hash trie; every write creates a new
+ * version of the trie, sharing all unchanged nodes with the previous one, and publishes it atomically.
+ * <p/>
+ * Readers call {@link #snapshot()} to pin the current version in constant time and can then read it for as long
+ * as they like without locking and without seeing concurrent writes. {@link #findAll()} is backed by such a
+ * snapshot, so iterating it is consistent as well. Writers never block readers; concurrent writers retry on
+ * conflict. A version is reclaimed by the garbage collector as soon as the last snapshot referring to it is
+ * released.
+ * 
+ * @param <T>
+ *            The Entity type
+ * @param <ID>
+ *            The Id type
+ */
+public class VersionedInMemoryRepository<T extends Entity<ID>, ID extends Serializable> implements
+        Repository<T, ID> {
+
+    private final AtomicReference<Snapshot<T, ID>> current = new AtomicReference<Snapshot<T, ID>>(
+            new Snapshot<T, ID>(PersistentHashMap.<ID, T> empty(), 0));
+
+    /**
+     * Pin the current version of the repository.
+     * 
+     * @return an immutable view of the repository as of now
+     */
+    public Snapshot<T, ID> snapshot() {
+        return current.get();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * This is a no-op operation with the in-memory repository
+     */
+    public void clear() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public boolean contains(T entity) {
+        return snapshot().contains(entity);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T find(ID id) {
+        return snapshot().find(id);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * All entities are read from the same snapshot.
+     */
+    public List<T> findAllById(Collection<ID> ids) {
+        Snapshot<T, ID> snapshot = snapshot();
+        List<T> result = new ArrayList<T>(ids.size());
+        for (ID id : ids) {
+            T entity = snapshot.find(id);
+            if (entity != null) {
+                result.add(entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The returned collection is an immutable snapshot of the repository.
+     */
+    public Collection<T> findAll() {
+        return snapshot().findAll();
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * This is a no-op operation with the in-memory repository
+     */
+    public void flush() {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T merge(T object) {
+        return put(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T persist(T object) {
+        return put(object);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Not supported by the in-memory repository
+     */
+    public void refresh(T object) {
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(T object) {
+        remove(object.getId());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public void remove(ID id) {
+        while (true) {
+            Snapshot<T, ID> snapshot = current.get();
+            PersistentHashMap<ID, T> entities = snapshot.getEntities().remove(id);
+            if (entities == snapshot.getEntities() || publish(snapshot, entities)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    public T store(T entity) {
+        return put(entity);
+    }
+
+    private T put(T entity) {
+        ID id = entity.getId();
+        if (id == null) {
+            throw new NullPointerException("Entity id must not be null");
+        }
+        while (true) {
+            Snapshot<T, ID> snapshot = current.get();
+            PersistentHashMap<ID, T> entities = snapshot.getEntities().put(id, entity);
+            if (publish(snapshot, entities)) {
+                return snapshot.find(id);
+            }
+        }
+    }
+
+    private boolean publish(Snapshot<T, ID> expected, PersistentHashMap<ID, T> entities) {
+        return current.compareAndSet(expected, new Snapshot<T, ID>(entities, expected.getVersion() + 1));
+    }
+}
@@ -0,0 +1,330 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only log of repository writes, with compacted snapshots.
+ * <p/>
+ * The log lives in a directory holding two files: <code>snapshot.dat</code>, the complete state as of the last
+ * checkpoint, and <code>wal.log</code>, every write since. Both are sequences of records of the form
+ * <code>length, CRC32, operation, payload</code>. A torn record at the end of the log, left by a crash in the
+ * middle of a write, is detected by its checksum and discarded on recovery.
+ * <p/>
+ * {@link #append(byte, byte[])} and {@link #checkpoint(Iterable)} must be serialized by the caller.
+ * {@link #sync(long)} may be called concurrently; callers waiting for the same fsync share it (group commit).
+ */
+class WriteAheadLog {
+
+    static final byte PUT = 1;
+
+    static final byte REMOVE = 2;
+
+    private static final byte END = 0;
+
+    private static final int MAGIC = 0x56475244;
+
+    private static final int HEADER_SIZE = 9;
+
+    private static final String SNAPSHOT = "snapshot.dat";
+
+    private static final String SNAPSHOT_TMP = "snapshot.tmp";
+
+    private static final String LOG = "wal.log";
+
+    /**
+     * Receives the records read during recovery.
+     */
+    interface RecordHandler {
+
+        void apply(byte operation, byte[] payload);
+    }
+
+    private final File directory;
+
+    private FileChannel channel;
+
+    /** Logical position of the start of the current log file, advanced by every checkpoint. */
+    private long base;
+
+    private volatile long written;
+
+    private final Object syncMonitor = new Object();
+
+    private long synced;
+
+    private boolean syncing;
+
+    private volatile boolean failed;
+
+    WriteAheadLog(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Replay the snapshot and the log into <code>handler</code> and open the log for appending.
+     */
+    void recover(RecordHandler handler) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+        File snapshot = new File(directory, SNAPSHOT);
+        File snapshotTmp = new File(directory, SNAPSHOT_TMP);
+        if (!snapshot.exists() && snapshotTmp.exists()) {
+            if (readSnapshot(snapshotTmp, null)) {
+                // crashed between removing the old snapshot and renaming the new one
+                rename(snapshotTmp, snapshot);
+            } else if (!snapshotTmp.delete()) {
+                throw new IOException("Unable to remove incomplete snapshot " + snapshotTmp);
+            }
+        }
+        if (snapshot.exists() && !readSnapshot(snapshot, handler)) {
+            throw new IOException("Corrupt snapshot " + snapshot);
+        }
+
+        File log = new File(directory, LOG);
+        long valid = 0;
+        if (log.exists()) {
+            DataInputStream in = open(log);
+            try {
+                valid = read(in, handler, false, log.length());
+            } finally {
+                in.close();
+            }
+        }
+        channel = new RandomAccessFile(log, "rw").getChannel();
+        channel.truncate(valid);
+        channel.position(valid);
+        channel.force(true);
+        written = valid;
+        synced = valid;
+    }
+
+    /**
+     * Append a record to the log. The record is not durable until {@link #sync(long)} has returned.
+     * 
+     * @return the position to pass to {@link #sync(long)}
+     */
+    long append(byte operation, byte[] payload) {
+        if (failed) {
+            throw new IllegalStateException("Write-ahead log in " + directory + " has failed");
+        }
+        try {
+            write(channel, record(operation, payload));
+            written += HEADER_SIZE + payload.length;
+            return written;
+        } catch (IOException e) {
+            failed = true;
+            throw new IllegalStateException("Unable to append to write-ahead log in " + directory, e);
+        }
+    }
+
+    /**
+     * Wait until everything up to <code>position</code> is on disk. One caller forces the file while the others
+     * wait for it, so concurrent writers share a single fsync.
+     */
+    void sync(long position) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                synchronized (syncMonitor) {
+                    while (synced < position && syncing) {
+                        try {
+                            syncMonitor.wait();
+                        } catch (InterruptedException e) {
+                            interrupted = true;
+                        }
+                    }
+                    if (synced >= position) {
+                        return;
+                    }
+                    syncing = true;
+                }
+                long target = written;
+                boolean forced = false;
+                try {
+                    channel.force(false);
+                    forced = true;
+                } catch (IOException e) {
+                    failed = true;
+                    throw new IllegalStateException("Unable to sync write-ahead log in " + directory, e);
+                } finally {
+                    synchronized (syncMonitor) {
+                        syncing = false;
+                        if (forced && target > synced) {
+                            synced = target;
+                        }
+                        syncMonitor.notifyAll();
+                    }
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes in the log since the last checkpoint
+     */
+    long size() {
+        return written - base;
+    }
+
+    /**
+     * Write a new snapshot holding <code>payloads</code> as {@link #PUT} records and truncate the log.
+     */
+    void checkpoint(Iterable<byte[]> payloads) {
+        File snapshot = new File(directory, SNAPSHOT);
+        File snapshotTmp = new File(directory, SNAPSHOT_TMP);
+        try {
+            FileChannel out = new RandomAccessFile(snapshotTmp, "rw").getChannel();
+            try {
+                out.truncate(0);
+                ByteBuffer magic = ByteBuffer.allocate(4).putInt(MAGIC);
+                magic.flip();
+                write(out, magic);
+                for (byte[] payload : payloads) {
+                    write(out, record(PUT, payload));
+                }
+                write(out, record(END, new byte[0]));
+                out.force(true);
+            } finally {
+                out.close();
+            }
+            if (snapshot.exists() && !snapshot.delete()) {
+                throw new IOException("Unable to replace " + snapshot);
+            }
+            rename(snapshotTmp, snapshot);
+
+            // everything written so far is now covered by the snapshot
+            channel.truncate(0);
+            channel.position(0);
+            channel.force(true);
+            synchronized (syncMonitor) {
+                base = written;
+                synced = written;
+                syncMonitor.notifyAll();
+            }
+        } catch (IOException e) {
+            failed = true;
+            throw new IllegalStateException("Unable to checkpoint write-ahead log in " + directory, e);
+        }
+    }
+
+    void close() throws IOException {
+        if (channel != null) {
+            channel.force(true);
+            channel.close();
+        }
+    }
+
+    /**
+     * @return true if <code>file</code> is a complete snapshot
+     */
+    private static boolean readSnapshot(File file, RecordHandler handler) throws IOException {
+        DataInputStream in = open(file);
+        try {
+            return in.readInt() == MAGIC && read(in, handler, true, file.length()) >= 0;
+        } catch (EOFException e) {
+            return false;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Read records until the end of the stream, a torn record or, if <code>expectEnd</code>, an END record.
+     * Lengths larger than <code>limit</code> can only come from a torn record and end the read as well.
+     * 
+     * @return the number of bytes of valid records, or -1 if <code>expectEnd</code> and no END record was found
+     */
+    private static long read(DataInputStream in, RecordHandler handler, boolean expectEnd, long limit)
+            throws IOException {
+        long valid = 0;
+        while (true) {
+            byte operation;
+            byte[] payload;
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                operation = in.readByte();
+                if (length < 0 || length > limit) {
+                    break;
+                }
+                payload = new byte[length];
+                in.readFully(payload);
+                if (checksum != checksum(operation, payload)) {
+                    break;
+                }
+            } catch (EOFException e) {
+                break;
+            }
+            if (operation == END) {
+                return valid;
+            }
+            if (handler != null) {
+                handler.apply(operation, payload);
+            }
+            valid += HEADER_SIZE + payload.length;
+        }
+        return expectEnd ? -1 : valid;
+    }
+
+    private static ByteBuffer record(byte operation, byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        buffer.putInt(payload.length).putInt(checksum(operation, payload)).put(operation).put(payload);
+        buffer.flip();
+        return buffer;
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static int checksum(byte operation, byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(operation);
+        crc.update(payload);
+        return (int) crc.getValue();
+    }
+
+    private static DataInputStream open(File file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    private static void rename(File from, File to) throws IOException {
+        if (!from.renameTo(to)) {
+            throw new IOException("Unable to rename " + from + " to " + to);
+        }
+    }
+}
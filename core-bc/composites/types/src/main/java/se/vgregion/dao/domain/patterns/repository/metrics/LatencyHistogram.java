@@ -0,0 +1,144 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Concurrent histogram of latencies in nanoseconds, with buckets laid out like HdrHistogram: every power of two is
+ * split into 32 linear sub-buckets, so a recorded value is reproduced with a relative error below 1/32 over the
+ * whole range at a fixed memory cost of about 9 kB. Latencies of 2<sup>40</sup> nanoseconds (about 18 minutes)
+ * and longer are recorded as the longest latency that fits.
+ * <p/>
+ * Recording is lock free and takes a few atomic increments, so it can be done on every call. Reads are not atomic
+ * with respect to concurrent recording and may be off by the values recorded meanwhile.
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_MAGNITUDE = 40;
+
+    private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a latency.
+     * 
+     * @param nanos
+     *            the latency in nanoseconds; negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long value = Math.min(Math.max(nanos, 0), MAX_VALUE);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return the number of recorded latencies
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the mean latency in <code>unit</code>, or 0 if nothing has been recorded
+     */
+    public double getMean(TimeUnit unit) {
+        long n = count.get();
+        return n == 0 ? 0 : (double) sum.get() / n / unit.toNanos(1);
+    }
+
+    /**
+     * @return the highest recorded latency in <code>unit</code>
+     */
+    public double getMax(TimeUnit unit) {
+        return (double) max.get() / unit.toNanos(1);
+    }
+
+    /**
+     * @param percentile
+     *            the percentile, between 0 and 100
+     * @return the latency in <code>unit</code> that <code>percentile</code> percent of the recorded latencies do
+     *         not exceed, or 0 if nothing has been recorded
+     */
+    public double getPercentile(double percentile, TimeUnit unit) {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return (double) Math.min(highestValueAt(i), max.get()) / unit.toNanos(1);
+            }
+        }
+        return getMax(unit);
+    }
+
+    /**
+     * Forget all recorded latencies.
+     */
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) - SUB_BUCKET_COUNT);
+    }
+
+    static long highestValueAt(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long lowest = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
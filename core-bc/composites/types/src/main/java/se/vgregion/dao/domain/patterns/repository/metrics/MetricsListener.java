@@ -0,0 +1,41 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.metrics;
+
+/**
+ * Service provider interface for publishing repository metrics to a metrics system other than JMX. Listeners are
+ * added to {@link RepositoryMetrics} and called on the calling thread after every recorded call, so they must be
+ * fast and thread safe.
+ */
+public interface MetricsListener {
+
+    /**
+     * Called after a call has been recorded.
+     * 
+     * @param metrics
+     *            the metrics of the operation, with the call already recorded
+     * @param nanos
+     *            the duration of the call in nanoseconds
+     * @param rows
+     *            the number of rows returned or affected by the call
+     * @param error
+     *            the exception the call failed with, or <code>null</code> if it succeeded
+     */
+    void callRecorded(OperationMetrics metrics, long nanos, int rows, Throwable error);
+}
@@ -0,0 +1,128 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Call count, error count, rows returned and latency distribution of one operation of one repository type.
+ */
+public class OperationMetrics implements OperationMetricsMBean {
+
+    private final String repository;
+
+    private final String operation;
+
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private final AtomicLong rowCount = new AtomicLong();
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    OperationMetrics(String repository, String operation) {
+        this.repository = repository;
+        this.operation = operation;
+    }
+
+    /**
+     * Record a completed call.
+     * 
+     * @param nanos
+     *            the duration of the call in nanoseconds
+     * @param rows
+     *            the number of rows returned or affected by the call
+     * @param failed
+     *            true if the call failed with an exception
+     */
+    void record(long nanos, int rows, boolean failed) {
+        latencies.record(nanos);
+        if (rows > 0) {
+            rowCount.addAndGet(rows);
+        }
+        if (failed) {
+            errorCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * @return the name of the repository type
+     */
+    public String getRepository() {
+        return repository;
+    }
+
+    /**
+     * @return the name of the operation
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * @return the latencies of all calls, including failed ones
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    public long getCallCount() {
+        return latencies.getCount();
+    }
+
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    public long getRowCount() {
+        return rowCount.get();
+    }
+
+    public double getLatencyMeanMillis() {
+        return latencies.getMean(TimeUnit.MILLISECONDS);
+    }
+
+    public double getLatencyMedianMillis() {
+        return latencies.getPercentile(50, TimeUnit.MILLISECONDS);
+    }
+
+    public double getLatency95thPercentileMillis() {
+        return latencies.getPercentile(95, TimeUnit.MILLISECONDS);
+    }
+
+    public double getLatency99thPercentileMillis() {
+        return latencies.getPercentile(99, TimeUnit.MILLISECONDS);
+    }
+
+    public double getLatencyMaxMillis() {
+        return latencies.getMax(TimeUnit.MILLISECONDS);
+    }
+
+    public void reset() {
+        latencies.reset();
+        errorCount.set(0);
+        rowCount.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return repository + "." + operation + "[calls=" + getCallCount() + ", errors=" + getErrorCount() + ", rows="
+                + getRowCount() + ", p99=" + getLatency99thPercentileMillis() + "ms]";
+    }
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.metrics;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the {@link OperationMetrics} of all repository operations.
+ * <p/>
+ * Once an {@link MBeanServer} is set, the metrics of every operation are published as an MBean named
+ * <code>&lt;domain&gt;:type=RepositoryMetrics,repository=&lt;repository&gt;,operation=&lt;operation&gt;</code>.
+ * {@link MetricsListener}s receive every recorded call, for publishing to other metrics systems.
+ */
+public class RepositoryMetrics {
+
+    private static final String DEFAULT_DOMAIN = "se.vgregion.dao";
+
+    private final ConcurrentMap<String, OperationMetrics> operations =
+            new ConcurrentHashMap<String, OperationMetrics>();
+
+    private final List<MetricsListener> listeners = new CopyOnWriteArrayList<MetricsListener>();
+
+    private String domain = DEFAULT_DOMAIN;
+
+    private MBeanServer mbeanServer;
+
+    /**
+     * The JMX domain of the MBeans, <code>se.vgregion.dao</code> by default.
+     */
+    public String getDomain() {
+        return domain;
+    }
+
+    public void setDomain(String domain) {
+        this.domain = domain;
+    }
+
+    /**
+     * Publish the metrics of all operations, those recorded so far and those to come, to <code>mbeanServer</code>,
+     * e.g. <code>ManagementFactory.getPlatformMBeanServer()</code>.
+     */
+    public synchronized void setMBeanServer(MBeanServer mbeanServer) {
+        this.mbeanServer = mbeanServer;
+        for (OperationMetrics metrics : operations.values()) {
+            register(metrics);
+        }
+    }
+
+    /**
+     * Remove the MBeans of all operations from the {@link MBeanServer}.
+     */
+    public synchronized void unregisterMBeans() {
+        if (mbeanServer == null) {
+            return;
+        }
+        for (OperationMetrics metrics : operations.values()) {
+            try {
+                ObjectName name = objectName(metrics);
+                if (mbeanServer.isRegistered(name)) {
+                    mbeanServer.unregisterMBean(name);
+                }
+            } catch (JMException e) {
+                throw new IllegalStateException("Unable to unregister the MBean of " + metrics, e);
+            }
+        }
+        mbeanServer = null;
+    }
+
+    public void addListener(MetricsListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MetricsListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Record a completed call of <code>operation</code> on <code>repository</code>.
+     * 
+     * @param repository
+     *            the name of the repository type
+     * @param operation
+     *            the name of the operation
+     * @param nanos
+     *            the duration of the call in nanoseconds
+     * @param rows
+     *            the number of rows returned or affected by the call
+     * @param error
+     *            the exception the call failed with, or <code>null</code> if it succeeded
+     */
+    public void record(String repository, String operation, long nanos, int rows, Throwable error) {
+        OperationMetrics metrics = getOperationMetrics(repository, operation);
+        metrics.record(nanos, rows, error != null);
+        for (MetricsListener listener : listeners) {
+            listener.callRecorded(metrics, nanos, rows, error);
+        }
+    }
+
+    /**
+     * @return the metrics of <code>operation</code> on <code>repository</code>, which are created if the operation
+     *         has not been recorded before
+     */
+    public OperationMetrics getOperationMetrics(String repository, String operation) {
+        String key = repository + '#' + operation;
+        OperationMetrics metrics = operations.get(key);
+        if (metrics == null) {
+            metrics = new OperationMetrics(repository, operation);
+            OperationMetrics existing = operations.putIfAbsent(key, metrics);
+            if (existing != null) {
+                return existing;
+            }
+            synchronized (this) {
+                register(metrics);
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the metrics of all operations recorded so far
+     */
+    public Collection<OperationMetrics> getOperationMetrics() {
+        return new ArrayList<OperationMetrics>(operations.values());
+    }
+
+    private void register(OperationMetrics metrics) {
+        if (mbeanServer == null) {
+            return;
+        }
+        try {
+            ObjectName name = objectName(metrics);
+            if (!mbeanServer.isRegistered(name)) {
+                mbeanServer.registerMBean(metrics, name);
+            }
+        } catch (JMException e) {
+            throw new IllegalStateException("Unable to register the MBean of " + metrics, e);
+        }
+    }
+
+    private ObjectName objectName(OperationMetrics metrics) throws JMException {
+        return new ObjectName(domain + ":type=RepositoryMetrics,repository="
+                + ObjectName.quote(metrics.getRepository()) + ",operation=" + ObjectName.quote(metrics.getOperation()));
+    }
+}
@@ -0,0 +1,315 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.support;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Renders objects the way <code>ReflectionToStringBuilder</code> does, but from a cached per-class plan.
+ * <p/>
+ * The fields of a class are looked up once; rendering then reads them with typed accessors into a
+ * {@link StringBuilder} that is reused by the thread, so the only allocation is the resulting string. The
+ * output is the same as with the corresponding <code>ToStringStyle</code>: all fields of the class and its
+ * superclasses except static and transient fields and fields with a '$' in their name, <code>&lt;null&gt;</code>
+ * for null values and arrays as <code>{a,b}</code>.
+ * <p/>
+ * An object that is reached again while it is being rendered, directly or through the <code>toString</code> of
+ * a field value, is rendered as <code>ClassName@hashCode</code> instead of recursing forever. The same short form
+ * is used for objects nested deeper than {@link #setMaxDepth(int)}, and output longer than
+ * {@link #setMaxLength(int)} is cut off with <code>...</code>. Both limits are off by default.
+ */
+public final class ToStringRenderer {
+
+    /**
+     * How the class of the rendered object is named.
+     */
+    public enum Style {
+        /** The fully qualified class name followed by the identity hash code, as <code>DEFAULT_STYLE</code>. */
+        DEFAULT,
+        /** The class name without the package, as <code>SHORT_PREFIX_STYLE</code>. */
+        SHORT_PREFIX
+    }
+
+    private static final ConcurrentMap<Class<?>, ToStringRenderer> RENDERERS =
+            new ConcurrentHashMap<Class<?>, ToStringRenderer>();
+
+    private static final ThreadLocal<Context> CONTEXT = new ThreadLocal<Context>() {
+        @Override
+        protected Context initialValue() {
+            return new Context();
+        }
+    };
+
+    private static final int RETAINED_CAPACITY = 8192;
+
+    private static final String NULL_TEXT = "<null>";
+
+    private static final String TRUNCATED_TEXT = "...";
+
+    private static volatile int maxDepth;
+
+    private static volatile int maxLength;
+
+    private final String className;
+
+    private final String shortClassName;
+
+    private final Field[] fields;
+
+    private final String[] labels;
+
+    private ToStringRenderer(Class<?> type) {
+        className = type.getName();
+        String name = className.substring(className.lastIndexOf('.') + 1);
+        shortClassName = name.replace('$', '.');
+        List<Field> rendered = new ArrayList<Field>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            Field[] declared = c.getDeclaredFields();
+            AccessibleObject.setAccessible(declared, true);
+            for (Field field : declared) {
+                int modifiers = field.getModifiers();
+                if (field.getName().indexOf('$') == -1 && !Modifier.isTransient(modifiers)
+                        && !Modifier.isStatic(modifiers)) {
+                    rendered.add(field);
+                }
+            }
+        }
+        fields = rendered.toArray(new Field[rendered.size()]);
+        labels = new String[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            labels[i] = (i == 0 ? "" : ",") + fields[i].getName() + "=";
+        }
+    }
+
+    /**
+     * Limit how deep nested objects are rendered in full.
+     * 
+     * @param depth
+     *            the number of nested levels below the rendered object, or 0 for no limit
+     */
+    public static void setMaxDepth(int depth) {
+        maxDepth = depth;
+    }
+
+    /**
+     * Limit the length of the rendered field list.
+     * 
+     * @param length
+     *            the number of characters after which the output is cut off, or 0 for no limit
+     */
+    public static void setMaxLength(int length) {
+        maxLength = length;
+    }
+
+    /**
+     * Render all fields of <code>object</code>.
+     * 
+     * @param object
+     *            the object to render
+     * @param style
+     *            how to name the class of the object
+     * @return the string representation of <code>object</code>
+     */
+    public static String render(Object object, Style style) {
+        Context context = CONTEXT.get();
+        StringBuilder buffer = context.buffer;
+        if (context.depth == 0) {
+            if (buffer.capacity() > RETAINED_CAPACITY) {
+                buffer = new StringBuilder(RETAINED_CAPACITY);
+                context.buffer = buffer;
+            }
+            buffer.setLength(0);
+            renderInto(object, style, context);
+            return buffer.toString();
+        }
+        // called from the toString of a field value that is being rendered, share the buffer and the cycle check
+        int start = buffer.length();
+        renderInto(object, style, context);
+        String result = buffer.substring(start);
+        buffer.setLength(start);
+        return result;
+    }
+
+    private static void renderInto(Object object, Style style, Context context) {
+        ToStringRenderer renderer = RENDERERS.get(object.getClass());
+        if (renderer == null) {
+            renderer = new ToStringRenderer(object.getClass());
+            RENDERERS.put(object.getClass(), renderer);
+        }
+        int limit = maxDepth;
+        if (context.isRendering(object) || limit > 0 && context.depth > limit) {
+            renderer.appendIdentity(object, context.buffer);
+            return;
+        }
+        context.push(object);
+        try {
+            renderer.append(object, style, context);
+        } finally {
+            context.pop();
+        }
+    }
+
+    private void append(Object object, Style style, Context context) {
+        StringBuilder buffer = context.buffer;
+        if (style == Style.SHORT_PREFIX) {
+            buffer.append(shortClassName);
+        } else {
+            appendIdentity(object, buffer);
+        }
+        buffer.append('[');
+        int start = buffer.length();
+        int limit = maxLength;
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                buffer.append(labels[i]);
+                appendField(fields[i], object, context);
+                if (limit > 0 && buffer.length() - start > limit) {
+                    buffer.setLength(start + limit);
+                    buffer.append(TRUNCATED_TEXT);
+                    break;
+                }
+            }
+        } catch (IllegalAccessException e) {
+            throw new InternalError("Unexpected IllegalAccessException");
+        }
+        buffer.append(']');
+    }
+
+    private void appendIdentity(Object object, StringBuilder buffer) {
+        buffer.append(className).append('@').append(Integer.toHexString(System.identityHashCode(object)));
+    }
+
+    private static void appendField(Field field, Object object, Context context) throws IllegalAccessException {
+        StringBuilder buffer = context.buffer;
+        Class<?> type = field.getType();
+        if (!type.isPrimitive()) {
+            appendValue(field.get(object), context);
+        } else if (type == Integer.TYPE) {
+            buffer.append(field.getInt(object));
+        } else if (type == Long.TYPE) {
+            buffer.append(field.getLong(object));
+        } else if (type == Boolean.TYPE) {
+            buffer.append(field.getBoolean(object));
+        } else if (type == Double.TYPE) {
+            buffer.append(field.getDouble(object));
+        } else if (type == Float.TYPE) {
+            buffer.append(field.getFloat(object));
+        } else if (type == Character.TYPE) {
+            buffer.append(field.getChar(object));
+        } else if (type == Short.TYPE) {
+            buffer.append(field.getShort(object));
+        } else {
+            buffer.append(field.getByte(object));
+        }
+    }
+
+    private static void appendValue(Object value, Context context) {
+        StringBuilder buffer = context.buffer;
+        if (value == null) {
+            buffer.append(NULL_TEXT);
+        } else if (value.getClass().isArray()) {
+            appendArray(value, context);
+        } else if (context.isRendering(value)) {
+            buffer.append(value.getClass().getName()).append('@').append(
+                    Integer.toHexString(System.identityHashCode(value)));
+        } else {
+            buffer.append(value.toString());
+        }
+    }
+
+    private static void appendArray(Object array, Context context) {
+        StringBuilder buffer = context.buffer;
+        buffer.append('{');
+        if (array instanceof Object[]) {
+            Object[] elements = (Object[]) array;
+            for (int i = 0; i < elements.length; i++) {
+                if (i > 0) {
+                    buffer.append(',');
+                }
+                appendValue(elements[i], context);
+            }
+        } else {
+            int length = Array.getLength(array);
+            for (int i = 0; i < length; i++) {
+                if (i > 0) {
+                    buffer.append(',');
+                }
+                if (array instanceof int[]) {
+                    buffer.append(((int[]) array)[i]);
+                } else if (array instanceof long[]) {
+                    buffer.append(((long[]) array)[i]);
+                } else if (array instanceof byte[]) {
+                    buffer.append(((byte[]) array)[i]);
+                } else if (array instanceof char[]) {
+                    buffer.append(((char[]) array)[i]);
+                } else if (array instanceof short[]) {
+                    buffer.append(((short[]) array)[i]);
+                } else if (array instanceof boolean[]) {
+                    buffer.append(((boolean[]) array)[i]);
+                } else if (array instanceof double[]) {
+                    buffer.append(((double[]) array)[i]);
+                } else {
+                    buffer.append(((float[]) array)[i]);
+                }
+            }
+        }
+        buffer.append('}');
+    }
+
+    /**
+     * Per thread rendering state: the reused buffer and the objects that are currently being rendered.
+     */
+    private static final class Context {
+
+        private StringBuilder buffer = new StringBuilder(256);
+
+        private Object[] rendering = new Object[8];
+
+        private int depth;
+
+        boolean isRendering(Object object) {
+            for (int i = 0; i < depth; i++) {
+                if (rendering[i] == object) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        void push(Object object) {
+            if (depth == rendering.length) {
+                Object[] grown = new Object[depth * 2];
+                System.arraycopy(rendering, 0, grown, 0, depth);
+                rendering = grown;
+            }
+            rendering[depth++] = object;
+        }
+
+        void pop() {
+            rendering[--depth] = null;
+        }
+    }
+}
@@ -5,9 +5,8 @@
 package se.vgregion.dao.domain.patterns.valueobject;
 
 import org.apache.commons.lang.builder.EqualsBuilder;
-import org.apache.commons.lang.builder.HashCodeBuilder;
-import org.apache.commons.lang.builder.ReflectionToStringBuilder;
-import org.apache.commons.lang.builder.ToStringStyle;
+
+import se.vgregion.dao.domain.patterns.support.ToStringRenderer;
 
 /**
  * Supporting base class for value objects.
@@ -31,7 +30,17 @@ public abstract class AbstractValueObject implements ValueObject {
      * @return True if all non-transient fields are equal.
      */
     public final boolean sameValueAs(final ValueObject other) {
-        return other != null && EqualsBuilder.reflectionEquals(this, other);
+        if (other == null) {
+            return false;
+        }
+        if (this.getClass() != other.getClass()) {
+            // rare, leave it to the fully reflective comparison
+            return EqualsBuilder.reflectionEquals(this, other);
+        }
+        if (this == other) {
+            return true;
+        }
+        return ValuePlan.of(getClass()).equals(this, other);
     }
 
     /**
@@ -50,7 +59,7 @@ public abstract class AbstractValueObject implements ValueObject {
         if (h == 0) {
             // Lazy initialization of hash code.
             // Value objects are immutable, so the hash code never changes.
-            h = HashCodeBuilder.reflectionHashCode(this, false);
+            h = ValuePlan.of(getClass()).hashCode(this);
             _cachedHashCode = h;
         }
 
@@ -80,6 +89,6 @@ public abstract class AbstractValueObject implements ValueObject {
 
     @Override
     public String toString() {
-        return new ReflectionToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE).toString();
+        return ToStringRenderer.render(this, ToStringRenderer.Style.SHORT_PREFIX);
     }
 }
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.valueobject;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Canonicalizing pool for value objects, the equivalent of {@link String#intern()}.
+ * <p/>
+ * {@link #intern(ValueObject)} returns a single shared instance for all equal values, so that an application
+ * holding many duplicates of a few distinct values, such as codes or addresses, only keeps one copy of each value
+ * on the heap. The pool only references its instances weakly and forgets a value once no one else uses it.
+ * <p/>
+ * Equal interned values are the same instance, so comparing them takes the reference check that
+ * {@link AbstractValueObject#equals(Object)} starts with. The values themselves carry no trace of the pool. Using
+ * a pool is optional; each value type that benefits from it should have its own pool:
+ * 
+ * <pre>
+ * private static final InternPool&lt;Address&gt; ADDRESSES = new InternPool&lt;Address&gt;();
+ * 
+ * Address address = ADDRESSES.intern(new Address(street, city));
+ * </pre>
+ * 
+ * The pool is thread safe and lock free for values already in the pool.
+ * 
+ * @param <T>
+ *            The value object type
+ */
+public class InternPool<T extends ValueObject> {
+
+    private final ConcurrentMap<Canonical<T>, Canonical<T>> pool =
+            new ConcurrentHashMap<Canonical<T>, Canonical<T>>();
+
+    private final ReferenceQueue<T> collected = new ReferenceQueue<T>();
+
+    /**
+     * Get the canonical instance for the value of <code>value</code>.
+     * 
+     * @param value
+     *            the value to intern
+     * @return the instance in the pool equal to <code>value</code>, or <code>value</code> itself if the pool did
+     *         not hold an equal value yet
+     */
+    public T intern(T value) {
+        if (value == null) {
+            return null;
+        }
+        expunge();
+        Canonical<T> candidate = new Canonical<T>(value, collected);
+        while (true) {
+            Canonical<T> existing = pool.putIfAbsent(candidate, candidate);
+            if (existing == null) {
+                return value;
+            }
+            T canonical = existing.get();
+            if (canonical != null) {
+                return canonical;
+            }
+            // collected but not yet expunged
+            pool.remove(existing, existing);
+        }
+    }
+
+    /**
+     * @return the number of distinct values in the pool, including values that are about to be forgotten
+     */
+    public int size() {
+        expunge();
+        return pool.size();
+    }
+
+    private void expunge() {
+        Reference<? extends T> reference;
+        while ((reference = collected.poll()) != null) {
+            pool.remove(reference, reference);
+        }
+    }
+
+    /**
+     * Weak reference to a pooled value that compares by the value it refers to. A cleared reference is only equal
+     * to itself.
+     */
+    private static final class Canonical<T> extends WeakReference<T> {
+
+        private final int hash;
+
+        Canonical(T value, ReferenceQueue<T> queue) {
+            super(value, queue);
+            hash = value.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof Canonical<?>)) {
+                return false;
+            }
+            Object value = get();
+            return value != null && value.equals(((Canonical<?>) other).get());
+        }
+    }
+}
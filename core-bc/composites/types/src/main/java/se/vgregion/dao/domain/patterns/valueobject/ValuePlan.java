@@ -0,0 +1,322 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.valueobject;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Precomputed equals and hash code logic for a value object class.
+ * <p/>
+ * The significant fields of a class are looked up once and cached, after which comparing and hashing instances
+ * only reads the fields through typed accessors, without scanning the class or boxing primitives. The fields and
+ * the results are the same as for <code>EqualsBuilder.reflectionEquals(lhs, rhs)</code> and
+ * <code>HashCodeBuilder.reflectionHashCode(object, false)</code>: all fields of the class and its superclasses
+ * except static and transient fields and fields with a '$' in their name, arrays compared element by element and
+ * the hash code built with the multiplier 37 starting from 17.
+ */
+final class ValuePlan {
+
+    private static final ConcurrentMap<Class<?>, ValuePlan> PLANS = new ConcurrentHashMap<Class<?>, ValuePlan>();
+
+    private static final int OBJECT = 0;
+
+    private static final int BOOLEAN = 1;
+
+    private static final int BYTE = 2;
+
+    private static final int CHAR = 3;
+
+    private static final int SHORT = 4;
+
+    private static final int INT = 5;
+
+    private static final int LONG = 6;
+
+    private static final int FLOAT = 7;
+
+    private static final int DOUBLE = 8;
+
+    private static final int INITIAL = 17;
+
+    private static final int MULTIPLIER = 37;
+
+    private final Field[] fields;
+
+    private final int[] kinds;
+
+    private ValuePlan(Class<?> type) {
+        List<Field> significant = new ArrayList<Field>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+            Field[] declared = c.getDeclaredFields();
+            AccessibleObject.setAccessible(declared, true);
+            for (Field field : declared) {
+                int modifiers = field.getModifiers();
+                if (field.getName().indexOf('$') == -1 && !Modifier.isTransient(modifiers)
+                        && !Modifier.isStatic(modifiers)) {
+                    significant.add(field);
+                }
+            }
+        }
+        fields = significant.toArray(new Field[significant.size()]);
+        kinds = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            kinds[i] = kindOf(fields[i].getType());
+        }
+    }
+
+    /**
+     * @return the plan for <code>type</code>, built on first use
+     */
+    static ValuePlan of(Class<?> type) {
+        ValuePlan plan = PLANS.get(type);
+        if (plan == null) {
+            plan = new ValuePlan(type);
+            PLANS.put(type, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Compare the significant fields of two instances of the class of this plan.
+     */
+    boolean equals(Object lhs, Object rhs) {
+        try {
+            for (int i = 0; i < fields.length; i++) {
+                Field field = fields[i];
+                switch (kinds[i]) {
+                case BOOLEAN:
+                    if (field.getBoolean(lhs) != field.getBoolean(rhs)) {
+                        return false;
+                    }
+                    break;
+                case BYTE:
+                    if (field.getByte(lhs) != field.getByte(rhs)) {
+                        return false;
+                    }
+                    break;
+                case CHAR:
+                    if (field.getChar(lhs) != field.getChar(rhs)) {
+                        return false;
+                    }
+                    break;
+                case SHORT:
+                    if (field.getShort(lhs) != field.getShort(rhs)) {
+                        return false;
+                    }
+                    break;
+                case INT:
+                    if (field.getInt(lhs) != field.getInt(rhs)) {
+                        return false;
+                    }
+                    break;
+                case LONG:
+                    if (field.getLong(lhs) != field.getLong(rhs)) {
+                        return false;
+                    }
+                    break;
+                case FLOAT:
+                    if (Float.floatToIntBits(field.getFloat(lhs)) != Float.floatToIntBits(field.getFloat(rhs))) {
+                        return false;
+                    }
+                    break;
+                case DOUBLE:
+                    if (Double.doubleToLongBits(field.getDouble(lhs)) != Double
+                            .doubleToLongBits(field.getDouble(rhs))) {
+                        return false;
+                    }
+                    break;
+                default:
+                    if (!equalValues(field.get(lhs), field.get(rhs))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        } catch (IllegalAccessException e) {
+            throw new InternalError("Unexpected IllegalAccessException");
+        }
+    }
+
+    /**
+     * Build the hash code of an instance of the class of this plan from its significant fields.
+     */
+    int hashCode(Object object) {
+        try {
+            int total = INITIAL;
+            for (int i = 0; i < fields.length; i++) {
+                Field field = fields[i];
+                switch (kinds[i]) {
+                case BOOLEAN:
+                    // the builder boxes scalar fields, so this is Boolean.hashCode() and not append(boolean)
+                    total = total * MULTIPLIER + (field.getBoolean(object) ? 1231 : 1237);
+                    break;
+                case BYTE:
+                    total = total * MULTIPLIER + field.getByte(object);
+                    break;
+                case CHAR:
+                    total = total * MULTIPLIER + field.getChar(object);
+                    break;
+                case SHORT:
+                    total = total * MULTIPLIER + field.getShort(object);
+                    break;
+                case INT:
+                    total = total * MULTIPLIER + field.getInt(object);
+                    break;
+                case LONG:
+                    total = hash(total, field.getLong(object));
+                    break;
+                case FLOAT:
+                    total = total * MULTIPLIER + Float.floatToIntBits(field.getFloat(object));
+                    break;
+                case DOUBLE:
+                    total = hash(total, Double.doubleToLongBits(field.getDouble(object)));
+                    break;
+                default:
+                    total = hash(total, field.get(object));
+                }
+            }
+            return total;
+        } catch (IllegalAccessException e) {
+            throw new InternalError("Unexpected IllegalAccessException");
+        }
+    }
+
+    private static int kindOf(Class<?> type) {
+        if (!type.isPrimitive()) {
+            return OBJECT;
+        } else if (type == Boolean.TYPE) {
+            return BOOLEAN;
+        } else if (type == Byte.TYPE) {
+            return BYTE;
+        } else if (type == Character.TYPE) {
+            return CHAR;
+        } else if (type == Short.TYPE) {
+            return SHORT;
+        } else if (type == Integer.TYPE) {
+            return INT;
+        } else if (type == Long.TYPE) {
+            return LONG;
+        } else if (type == Float.TYPE) {
+            return FLOAT;
+        }
+        return DOUBLE;
+    }
+
+    private static boolean equalValues(Object lhs, Object rhs) {
+        if (lhs == rhs) {
+            return true;
+        }
+        if (lhs == null || rhs == null) {
+            return false;
+        }
+        if (!lhs.getClass().isArray()) {
+            return lhs.equals(rhs);
+        }
+        if (lhs.getClass() != rhs.getClass()) {
+            return false;
+        }
+        if (lhs instanceof long[]) {
+            return Arrays.equals((long[]) lhs, (long[]) rhs);
+        } else if (lhs instanceof int[]) {
+            return Arrays.equals((int[]) lhs, (int[]) rhs);
+        } else if (lhs instanceof short[]) {
+            return Arrays.equals((short[]) lhs, (short[]) rhs);
+        } else if (lhs instanceof char[]) {
+            return Arrays.equals((char[]) lhs, (char[]) rhs);
+        } else if (lhs instanceof byte[]) {
+            return Arrays.equals((byte[]) lhs, (byte[]) rhs);
+        } else if (lhs instanceof double[]) {
+            return Arrays.equals((double[]) lhs, (double[]) rhs);
+        } else if (lhs instanceof float[]) {
+            return Arrays.equals((float[]) lhs, (float[]) rhs);
+        } else if (lhs instanceof boolean[]) {
+            return Arrays.equals((boolean[]) lhs, (boolean[]) rhs);
+        }
+        Object[] left = (Object[]) lhs;
+        Object[] right = (Object[]) rhs;
+        if (left.length != right.length) {
+            return false;
+        }
+        for (int i = 0; i < left.length; i++) {
+            if (!equalValues(left[i], right[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(int total, long value) {
+        return total * MULTIPLIER + (int) (value ^ (value >> 32));
+    }
+
+    private static int hash(int total, Object value) {
+        if (value == null) {
+            return total * MULTIPLIER;
+        }
+        if (!value.getClass().isArray()) {
+            return total * MULTIPLIER + value.hashCode();
+        }
+        int result = total;
+        if (value instanceof long[]) {
+            for (long element : (long[]) value) {
+                result = hash(result, element);
+            }
+        } else if (value instanceof int[]) {
+            for (int element : (int[]) value) {
+                result = result * MULTIPLIER + element;
+            }
+        } else if (value instanceof short[]) {
+            for (short element : (short[]) value) {
+                result = result * MULTIPLIER + element;
+            }
+        } else if (value instanceof char[]) {
+            for (char element : (char[]) value) {
+                result = result * MULTIPLIER + element;
+            }
+        } else if (value instanceof byte[]) {
+            for (byte element : (byte[]) value) {
+                result = result * MULTIPLIER + element;
+            }
+        } else if (value instanceof double[]) {
+            for (double element : (double[]) value) {
+                result = hash(result, Double.doubleToLongBits(element));
+            }
+        } else if (value instanceof float[]) {
+            for (float element : (float[]) value) {
+                result = result * MULTIPLIER + Float.floatToIntBits(element);
+            }
+        } else if (value instanceof boolean[]) {
+            for (boolean element : (boolean[]) value) {
+                result = result * MULTIPLIER + (element ? 0 : 1);
+            }
+        } else {
+            for (Object element : (Object[]) value) {
+                result = hash(result, element);
+            }
+        }
+        return result;
+    }
+}
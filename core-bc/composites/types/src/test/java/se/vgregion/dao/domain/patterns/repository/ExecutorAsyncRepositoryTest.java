@@ -0,0 +1,105 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import se.vgregion.dao.domain.patterns.repository.inmemory.InMemoryRepository;
+import se.vgregion.dao.domain.patterns.repository.inmemory.MockEntity;
+
+public class ExecutorAsyncRepositoryTest {
+
+    private ExecutorService executor = Executors.newCachedThreadPool();
+
+    private InMemoryRepository<MockEntity, Integer> repository = new InMemoryRepository<MockEntity, Integer>();
+
+    private ExecutorAsyncRepository<MockEntity, Integer> asyncRepository =
+            new ExecutorAsyncRepository<MockEntity, Integer>(repository, executor);
+
+    @After
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void operationsRunInTheBackground() throws Exception {
+        asyncRepository.store(new MockEntity(1, "foo")).get();
+        asyncRepository.persist(new MockEntity(2, "bar")).get();
+
+        Future<MockEntity> first = asyncRepository.find(1);
+        Future<MockEntity> second = asyncRepository.find(2);
+
+        assertEquals("foo", first.get().getName());
+        assertEquals("bar", second.get().getName());
+        assertEquals(2, asyncRepository.findAll().get().size());
+        assertTrue(asyncRepository.contains(new MockEntity(1)).get());
+
+        asyncRepository.remove(1).get();
+        asyncRepository.remove(new MockEntity(2)).get();
+
+        assertTrue(repository.findAll().isEmpty());
+    }
+
+    @Test
+    public void independentLookupsOverlap() throws Exception {
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        InMemoryRepository<MockEntity, Integer> slowRepository = new InMemoryRepository<MockEntity, Integer>() {
+            @Override
+            public MockEntity find(Integer id) {
+                bothStarted.countDown();
+                try {
+                    // only returns if the other lookup runs at the same time
+                    assertTrue(bothStarted.await(5, TimeUnit.SECONDS));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return super.find(id);
+            }
+        };
+        slowRepository.store(new MockEntity(1));
+        ExecutorAsyncRepository<MockEntity, Integer> slowAsync =
+                new ExecutorAsyncRepository<MockEntity, Integer>(slowRepository, executor);
+
+        Future<MockEntity> first = slowAsync.find(1);
+        Future<MockEntity> second = slowAsync.find(2);
+
+        assertNotNull(first.get(10, TimeUnit.SECONDS));
+        assertNull(second.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void failuresArePassedToTheCaller() throws Exception {
+        try {
+            asyncRepository.store(new MockEntity(null)).get();
+            fail("Expected ExecutionException");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+    }
+}
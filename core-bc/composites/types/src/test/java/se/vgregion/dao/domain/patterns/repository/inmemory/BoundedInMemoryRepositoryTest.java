@@ -0,0 +1,135 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class BoundedInMemoryRepositoryTest {
+
+    @Test
+    public void storeAndFind() {
+        BoundedInMemoryRepository<MockEntity, Integer> repository =
+                new BoundedInMemoryRepository<MockEntity, Integer>(10);
+
+        Assert.assertNull(repository.store(new MockEntity(1, "foo")));
+        Assert.assertEquals("foo", repository.store(new MockEntity(1, "bar")).getName());
+
+        Assert.assertEquals("bar", repository.find(1).getName());
+        Assert.assertNull(repository.find(2));
+        Assert.assertTrue(repository.contains(new MockEntity(1)));
+        Assert.assertEquals(1, repository.findAll().size());
+        Assert.assertEquals(1, repository.getHitCount());
+        Assert.assertEquals(1, repository.getMissCount());
+        Assert.assertEquals(0.5, repository.getHitRate(), 0.0);
+
+        repository.remove(1);
+
+        Assert.assertNull(repository.find(1));
+        Assert.assertEquals(0, repository.size());
+    }
+
+    @Test
+    public void sizeIsBounded() {
+        BoundedInMemoryRepository<MockEntity, Integer> repository =
+                new BoundedInMemoryRepository<MockEntity, Integer>(100);
+
+        for (int id = 0; id < 1000; id++) {
+            repository.store(new MockEntity(id));
+        }
+
+        Assert.assertEquals(100, repository.size());
+        Assert.assertEquals(100, repository.findAll().size());
+        Assert.assertEquals(900, repository.getEvictionCount());
+    }
+
+    @Test
+    public void weightIsBounded() {
+        BoundedInMemoryRepository<MockEntity, Integer> repository =
+                new BoundedInMemoryRepository<MockEntity, Integer>(100, new Weigher<MockEntity>() {
+                    public int weigh(MockEntity value) {
+                        return value.getName().length();
+                    }
+                });
+
+        for (int id = 0; id < 100; id++) {
+            repository.store(new MockEntity(id, "abcde"));
+        }
+
+        Assert.assertEquals(100, repository.getWeightedSize());
+        Assert.assertEquals(20, repository.size());
+    }
+
+    @Test
+    public void frequentlyUsedEntitiesSurviveAScan() {
+        BoundedInMemoryRepository<MockEntity, Integer> repository =
+                new BoundedInMemoryRepository<MockEntity, Integer>(100);
+        for (int id = 0; id < 50; id++) {
+            repository.store(new MockEntity(id));
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int id = 0; id < 50; id++) {
+                repository.find(id);
+            }
+        }
+
+        for (int id = 1000; id < 11000; id++) {
+            repository.store(new MockEntity(id));
+        }
+
+        int survivors = 0;
+        for (int id = 0; id < 50; id++) {
+            if (repository.find(id) != null) {
+                survivors++;
+            }
+        }
+        Assert.assertTrue("only " + survivors + " survived", survivors >= 45);
+    }
+
+    @Test
+    public void concurrentAccessStaysWithinBounds() throws InterruptedException {
+        final BoundedInMemoryRepository<MockEntity, Integer> repository =
+                new BoundedInMemoryRepository<MockEntity, Integer>(64);
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            final int offset = t * 1000;
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 20000; i++) {
+                        int id = offset + i % 500;
+                        if (repository.find(id) == null) {
+                            repository.store(new MockEntity(id));
+                        }
+                        if (i % 7 == 0) {
+                            repository.remove(id);
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        Assert.assertTrue(repository.size() <= 64);
+        Assert.assertEquals(repository.size(), repository.getWeightedSize());
+    }
+}
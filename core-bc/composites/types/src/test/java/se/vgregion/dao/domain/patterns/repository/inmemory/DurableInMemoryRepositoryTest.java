@@ -0,0 +1,161 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DurableInMemoryRepositoryTest {
+
+    private File directory;
+
+    private DurableInMemoryRepository<MockEntity, Integer> repository;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("wal", "");
+        directory.delete();
+        repository = new DurableInMemoryRepository<MockEntity, Integer>(directory);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        repository.close();
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void recoversFromLog() throws IOException {
+        repository.store(new MockEntity(1, "foo"));
+        repository.store(new MockEntity(2, "bar"));
+        repository.merge(new MockEntity(1, "baz"));
+        repository.remove(2);
+
+        reopen();
+
+        Assert.assertEquals(1, repository.findAll().size());
+        Assert.assertEquals("baz", repository.find(1).getName());
+    }
+
+    @Test
+    public void recoversFromSnapshotAndLog() throws IOException {
+        repository.store(new MockEntity(1, "foo"));
+        repository.store(new MockEntity(2, "bar"));
+        repository.checkpoint();
+        repository.remove(1);
+        repository.store(new MockEntity(3, "baz"));
+
+        reopen();
+
+        Assert.assertEquals(2, repository.findAll().size());
+        Assert.assertNull(repository.find(1));
+        Assert.assertEquals("bar", repository.find(2).getName());
+        Assert.assertEquals("baz", repository.find(3).getName());
+    }
+
+    @Test
+    public void checkpointsWhenLogIsFull() throws IOException {
+        repository.setCheckpointLogSize(1);
+        repository.store(new MockEntity(1, "foo"));
+
+        Assert.assertEquals(0, new File(directory, "wal.log").length());
+
+        reopen();
+
+        Assert.assertEquals("foo", repository.find(1).getName());
+    }
+
+    @Test
+    public void ignoresTornRecordAtEndOfLog() throws IOException {
+        repository.store(new MockEntity(1, "foo"));
+        repository.store(new MockEntity(2, "bar"));
+        repository.close();
+
+        RandomAccessFile log = new RandomAccessFile(new File(directory, "wal.log"), "rw");
+        log.setLength(log.length() - 3);
+        log.close();
+
+        repository = new DurableInMemoryRepository<MockEntity, Integer>(directory);
+
+        Assert.assertEquals(1, repository.findAll().size());
+        Assert.assertEquals("foo", repository.find(1).getName());
+
+        repository.store(new MockEntity(3, "baz"));
+        reopen();
+
+        Assert.assertEquals(2, repository.findAll().size());
+    }
+
+    @Test
+    public void leavesMemoryUnchangedWhenLogFails() throws IOException {
+        repository.store(new MockEntity(1, "foo"));
+        // closing the log makes every following append fail
+        repository.close();
+
+        try {
+            repository.store(new MockEntity(1, "bar"));
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        try {
+            repository.remove(1);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        Assert.assertEquals(1, repository.findAll().size());
+        Assert.assertEquals("foo", repository.find(1).getName());
+
+        repository = new DurableInMemoryRepository<MockEntity, Integer>(directory);
+        Assert.assertEquals("foo", repository.find(1).getName());
+    }
+
+    @Test
+    public void doesNotLogRejectedWrites() throws IOException {
+        repository.addUniqueIndex("name");
+        repository.store(new MockEntity(1, "foo"));
+        try {
+            repository.store(new MockEntity(2, "foo"));
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        reopen();
+
+        Assert.assertEquals(1, repository.findAll().size());
+        Assert.assertNull(repository.find(2));
+    }
+
+    private void reopen() throws IOException {
+        repository.close();
+        repository = new DurableInMemoryRepository<MockEntity, Integer>(directory);
+    }
+}
@@ -18,9 +18,15 @@
  */
 package se.vgregion.dao.domain.patterns.repository.inmemory;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Assert;
 import org.junit.Test;
 
+import se.vgregion.dao.domain.patterns.repository.Page;
+import se.vgregion.dao.domain.patterns.repository.PageRequest;
 import se.vgregion.dao.domain.patterns.repository.Repository;
 
 public class InMemoryRepositoryTest {
@@ -70,6 +76,16 @@ public class InMemoryRepositoryTest {
         Assert.assertEquals(2, repository.findAll().size());
     }
 
+    @Test
+    public void findAllById() {
+        repository.store(new MockEntity(123));
+        repository.store(new MockEntity(456));
+
+        List<MockEntity> found = repository.findAllById(Arrays.asList(456, 789, 123));
+
+        Assert.assertEquals(Arrays.asList(new MockEntity(456), new MockEntity(123)), found);
+    }
+
     @Test
     public void removeById() {
         repository.store(new MockEntity(123));
@@ -92,4 +108,118 @@ public class InMemoryRepositoryTest {
         Assert.assertEquals(0, repository.findAll().size());
     }
 
+    @Test
+    public void findByAttributeWithoutIndex() {
+        repository.store(new MockEntity(123, "foo"));
+        repository.store(new MockEntity(456, "bar"));
+
+        InMemoryRepository<MockEntity, Integer> inMemory = (InMemoryRepository<MockEntity, Integer>) repository;
+
+        Assert.assertEquals(1, inMemory.findByAttribute("name", "foo").size());
+        Assert.assertEquals(0, inMemory.findByAttribute("name", "baz").size());
+    }
+
+    @Test
+    public void findByAttributeWithIndex() {
+        InMemoryRepository<MockEntity, Integer> inMemory = new InMemoryRepository<MockEntity, Integer>();
+        inMemory.store(new MockEntity(1, "foo"));
+        inMemory.addIndex("name");
+        inMemory.store(new MockEntity(2, "foo"));
+        inMemory.store(new MockEntity(3, "bar"));
+
+        Assert.assertEquals(2, inMemory.findByAttribute("name", "foo").size());
+        Assert.assertEquals(1, inMemory.findByAttribute("name", "bar").size());
+
+        inMemory.remove(2);
+
+        Assert.assertEquals(1, inMemory.findByAttribute("name", "foo").size());
+    }
+
+    @Test
+    public void indexFollowsInPlaceModification() {
+        InMemoryRepository<MockEntity, Integer> inMemory = new InMemoryRepository<MockEntity, Integer>();
+        inMemory.addIndex("name");
+        MockEntity entity = new MockEntity(1, "foo");
+        inMemory.store(entity);
+
+        entity.setName("bar");
+        inMemory.store(entity);
+
+        Assert.assertEquals(0, inMemory.findByAttribute("name", "foo").size());
+        Assert.assertEquals(1, inMemory.findByAttribute("name", "bar").size());
+    }
+
+    @Test
+    public void uniqueIndexRejectsDuplicates() {
+        InMemoryRepository<MockEntity, Integer> inMemory = new InMemoryRepository<MockEntity, Integer>();
+        inMemory.addUniqueIndex("name");
+        inMemory.store(new MockEntity(1, "foo"));
+
+        try {
+            inMemory.store(new MockEntity(2, "foo"));
+            Assert.fail("Expected unique index violation");
+        } catch (IllegalArgumentException e) {
+            Assert.assertNull(inMemory.find(2));
+        }
+
+        inMemory.store(new MockEntity(1, "bar"));
+        inMemory.store(new MockEntity(2, "foo"));
+
+        Assert.assertEquals(new Integer(2), inMemory.findByAttribute("name", "foo").iterator().next().getId());
+    }
+
+    @Test
+    public void keysetPagesById() {
+        InMemoryRepository<MockEntity, Integer> inMemory = new InMemoryRepository<MockEntity, Integer>();
+        for (int id = 10; id > 0; id--) {
+            inMemory.store(new MockEntity(id));
+        }
+
+        List<Integer> ids = new ArrayList<Integer>();
+        int pages = 0;
+        PageRequest request = PageRequest.first(3);
+        while (request != null) {
+            Page<MockEntity> page = inMemory.findPage(request);
+            for (MockEntity entity : page.getContent()) {
+                ids.add(entity.getId());
+            }
+            pages++;
+            request = page.nextPageRequest();
+        }
+
+        Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10), ids);
+        Assert.assertEquals(4, pages);
+    }
+
+    @Test
+    public void keysetPagesBySortAttribute() {
+        InMemoryRepository<MockEntity, Integer> inMemory = new InMemoryRepository<MockEntity, Integer>();
+        inMemory.store(new MockEntity(1, "b"));
+        inMemory.store(new MockEntity(2, "a"));
+        inMemory.store(new MockEntity(3, "b"));
+        inMemory.store(new MockEntity(4, "c"));
+
+        Page<MockEntity> first = inMemory.findPage(PageRequest.first(2, "name", false));
+        // entities added before the current position do not shift the following pages
+        inMemory.store(new MockEntity(5, "d"));
+        Page<MockEntity> second = inMemory.findPage(first.nextPageRequest());
+
+        Assert.assertEquals(Arrays.asList(new MockEntity(4), new MockEntity(3)), first.getContent());
+        Assert.assertEquals(Arrays.asList(new MockEntity(1), new MockEntity(2)), second.getContent());
+        Assert.assertFalse(second.hasNext());
+    }
+
+    @Test
+    public void offsetPages() {
+        InMemoryRepository<MockEntity, Integer> inMemory = new InMemoryRepository<MockEntity, Integer>();
+        for (int id = 1; id <= 5; id++) {
+            inMemory.store(new MockEntity(id));
+        }
+
+        Page<MockEntity> page = inMemory.findPage(PageRequest.atOffset(2, 2, null, true));
+
+        Assert.assertEquals(Arrays.asList(new MockEntity(3), new MockEntity(4)), page.getContent());
+        Assert.assertEquals(4, page.nextPageRequest().getOffset());
+        Assert.assertFalse(inMemory.findPage(page.nextPageRequest()).hasNext());
+    }
 }
@@ -0,0 +1,104 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LongKeyedInMemoryRepositoryTest {
+
+    private LongKeyedInMemoryRepository<LongMockEntity> repository =
+            new LongKeyedInMemoryRepository<LongMockEntity>();
+
+    @Test
+    public void storeAndFind() {
+        repository.store(new LongMockEntity(123L, "foo"));
+
+        Assert.assertEquals("foo", repository.find(123L).getName());
+        Assert.assertEquals("foo", repository.find(new Long(123)).getName());
+        Assert.assertNull(repository.find(456L));
+        Assert.assertTrue(repository.contains(new LongMockEntity(123L, null)));
+    }
+
+    @Test
+    public void remove() {
+        repository.store(new LongMockEntity(123L, "foo"));
+        repository.remove(123L);
+
+        Assert.assertNull(repository.find(123L));
+        Assert.assertEquals(0, repository.findAll().size());
+
+        repository.store(new LongMockEntity(123L, "bar"));
+
+        Assert.assertEquals("bar", repository.find(123L).getName());
+    }
+
+    @Test
+    public void behavesLikeHashMapUnderRandomUpdates() {
+        Random random = new Random(4711);
+        Map<Long, String> expected = new HashMap<Long, String>();
+
+        for (int i = 0; i < 50000; i++) {
+            long id = random.nextInt(5000) - 2500;
+            if (random.nextInt(3) == 0) {
+                expected.remove(id);
+                repository.remove(id);
+            } else {
+                expected.put(id, "v" + i);
+                repository.store(new LongMockEntity(id, "v" + i));
+            }
+        }
+
+        Assert.assertEquals(expected.size(), repository.size());
+        Assert.assertEquals(expected.size(), repository.findAll().size());
+        for (long id = -2500; id < 2500; id++) {
+            LongMockEntity entity = repository.find(id);
+            Assert.assertEquals(expected.get(id), entity == null ? null : entity.getName());
+        }
+    }
+
+    @Test
+    public void readersSeeCompletedWritesDuringConcurrentGrowth() throws InterruptedException {
+        final int count = 100000;
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (long id = 0; id < count; id++) {
+                    repository.store(new LongMockEntity(id, "v" + id));
+                }
+            }
+        };
+        writer.start();
+        long id = 0;
+        while (id < count) {
+            LongMockEntity entity = repository.find(id);
+            if (entity != null) {
+                Assert.assertEquals(id, entity.getId().longValue());
+                id++;
+            }
+        }
+        writer.join();
+
+        Assert.assertEquals(count, repository.size());
+    }
+}
@@ -18,17 +18,36 @@
  */
 package se.vgregion.dao.domain.patterns.repository.inmemory;
 
+import java.io.Serializable;
+
 import se.vgregion.dao.domain.patterns.entity.AbstractEntity;
 
-public class MockEntity extends AbstractEntity<Integer> {
+public class MockEntity extends AbstractEntity<Integer> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
 
     private Integer id;
+
+    private String name;
     
     public Integer getId() {
         return id;
     }
 
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
     public MockEntity(Integer id) {
         this.id = id;
     }
+
+    public MockEntity(Integer id, String name) {
+        this.id = id;
+        this.name = name;
+    }
 }
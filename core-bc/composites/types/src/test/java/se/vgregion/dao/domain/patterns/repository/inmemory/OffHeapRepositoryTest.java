@@ -0,0 +1,165 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OffHeapRepositoryTest {
+
+    private OffHeapRepository<MockEntity, Integer> repository = new OffHeapRepository<MockEntity, Integer>(
+            new JavaSerializer<MockEntity>(), 4096);
+
+    @Test
+    public void storeAndFind() {
+        MockEntity entity = new MockEntity(123, "foo");
+        repository.store(entity);
+
+        MockEntity found = repository.find(123);
+
+        Assert.assertEquals(entity, found);
+        Assert.assertNotSame(entity, found);
+        Assert.assertEquals("foo", found.getName());
+        Assert.assertTrue(repository.contains(entity));
+    }
+
+    @Test
+    public void findAll() {
+        repository.store(new MockEntity(123));
+        repository.store(new MockEntity(456));
+
+        Assert.assertEquals(2, repository.findAll().size());
+    }
+
+    @Test
+    public void findAllById() {
+        repository.store(new MockEntity(123));
+        repository.store(new MockEntity(456));
+
+        List<MockEntity> found = repository.findAllById(Arrays.asList(456, 789, 123));
+
+        Assert.assertEquals(Arrays.asList(new MockEntity(456), new MockEntity(123)), found);
+    }
+
+    @Test
+    public void remove() {
+        repository.store(new MockEntity(123));
+        repository.remove(123);
+
+        Assert.assertNull(repository.find(123));
+        Assert.assertEquals(0, repository.size());
+    }
+
+    @Test
+    public void compactsGarbageFromUpdates() {
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 20; i++) {
+                repository.store(new MockEntity(i, "name" + round));
+            }
+        }
+
+        Assert.assertEquals(20, repository.size());
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals("name49", repository.find(i).getName());
+        }
+        Assert.assertTrue(repository.getAllocatedBytes() < 50 * 20 * 100);
+    }
+
+    @Test
+    public void removalsCompactAndReleaseChunks() {
+        for (int i = 0; i < 1000; i++) {
+            repository.store(new MockEntity(i, "name" + i));
+        }
+        Assert.assertTrue(repository.getReservedBytes() > 10 * 4096);
+
+        for (int i = 0; i < 1000; i++) {
+            if (i % 100 != 0) {
+                repository.remove(i);
+            }
+        }
+
+        Assert.assertEquals(10, repository.size());
+        for (int i = 0; i < 1000; i += 100) {
+            Assert.assertEquals("name" + i, repository.find(i).getName());
+        }
+        Assert.assertTrue(repository.getAllocatedBytes() < 2 * 4096);
+        Assert.assertTrue(repository.getReservedBytes() <= 4 * 4096);
+    }
+
+    @Test
+    public void findsEntitiesAfterInterleavedStoresAndRemovals() {
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 500; i++) {
+                repository.store(new MockEntity(i * 7 + round, "name" + round));
+            }
+            for (int i = 0; i < 500; i += 2) {
+                repository.remove(i * 7 + round);
+            }
+        }
+
+        Assert.assertEquals(5 * 250, repository.size());
+        Assert.assertEquals(5 * 250, repository.findAll().size());
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 500; i++) {
+                MockEntity found = repository.find(i * 7 + round);
+                if (i % 2 == 0) {
+                    Assert.assertNull(found);
+                } else {
+                    Assert.assertEquals("name" + round, found.getName());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void storesEntitiesLargerThanAChunk() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            name.append('x');
+        }
+        repository.store(new MockEntity(1, name.toString()));
+        repository.store(new MockEntity(2, "small"));
+
+        Assert.assertEquals(name.toString(), repository.find(1).getName());
+        Assert.assertEquals("small", repository.find(2).getName());
+    }
+
+    @Test
+    public void compactsAroundEntitiesLargerThanAChunk() {
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            name.append('x');
+        }
+        for (int i = 0; i < 200; i++) {
+            repository.store(new MockEntity(i, "small" + i));
+        }
+        repository.store(new MockEntity(1000, name.toString()));
+        for (int i = 0; i < 200; i++) {
+            repository.remove(i);
+        }
+        repository.store(new MockEntity(1, "small"));
+
+        Assert.assertEquals(name.toString(), repository.find(1000).getName());
+        Assert.assertEquals("small", repository.find(1).getName());
+        Assert.assertEquals(2, repository.size());
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PersistentHashMapTest {
+
+    @Test
+    public void putAndGet() {
+        PersistentHashMap<String, Integer> map = PersistentHashMap.empty();
+        PersistentHashMap<String, Integer> updated = map.put("a", 1).put("b", 2);
+
+        Assert.assertEquals(0, map.size());
+        Assert.assertNull(map.get("a"));
+        Assert.assertEquals(2, updated.size());
+        Assert.assertEquals(new Integer(1), updated.get("a"));
+        Assert.assertEquals(new Integer(2), updated.get("b"));
+    }
+
+    @Test
+    public void olderVersionsAreUnaffectedByUpdates() {
+        PersistentHashMap<String, Integer> v1 = PersistentHashMap.<String, Integer> empty().put("a", 1);
+        PersistentHashMap<String, Integer> v2 = v1.put("a", 2);
+        PersistentHashMap<String, Integer> v3 = v2.remove("a");
+
+        Assert.assertEquals(new Integer(1), v1.get("a"));
+        Assert.assertEquals(new Integer(2), v2.get("a"));
+        Assert.assertNull(v3.get("a"));
+        Assert.assertEquals(0, v3.size());
+    }
+
+    @Test
+    public void behavesLikeHashMapUnderRandomUpdates() {
+        Random random = new Random(4711);
+        Map<Key, Integer> expected = new HashMap<Key, Integer>();
+        PersistentHashMap<Key, Integer> actual = PersistentHashMap.empty();
+
+        for (int i = 0; i < 20000; i++) {
+            // few distinct hash codes so that collision nodes are exercised as well
+            Key key = new Key(random.nextInt(2000), random.nextInt(300));
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                actual = actual.remove(key);
+            } else {
+                expected.put(key, i);
+                actual = actual.put(key, i);
+            }
+            Assert.assertEquals(expected.size(), actual.size());
+        }
+
+        for (Map.Entry<Key, Integer> entry : expected.entrySet()) {
+            Assert.assertEquals(entry.getValue(), actual.get(entry.getKey()));
+        }
+        int count = 0;
+        for (Iterator<Map.Entry<Key, Integer>> it = actual.iterator(); it.hasNext();) {
+            Map.Entry<Key, Integer> entry = it.next();
+            Assert.assertEquals(expected.get(entry.getKey()), entry.getValue());
+            count++;
+        }
+        Assert.assertEquals(expected.size(), count);
+    }
+
+    private static class Key {
+
+        private final int value;
+
+        private final int hash;
+
+        Key(int value, int hash) {
+            this.value = value;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && ((Key) other).value == value;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
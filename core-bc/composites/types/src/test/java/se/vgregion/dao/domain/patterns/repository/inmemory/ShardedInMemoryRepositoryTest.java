@@ -0,0 +1,83 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ShardedInMemoryRepositoryTest {
+
+    private ShardedInMemoryRepository<MockEntity, Integer> repository =
+            new ShardedInMemoryRepository<MockEntity, Integer>(8);
+
+    @Test
+    public void storeAndFind() {
+        repository.store(new MockEntity(123, "foo"));
+
+        Assert.assertEquals("foo", repository.find(123).getName());
+        Assert.assertEquals(1, repository.findAll().size());
+        Assert.assertTrue(repository.contains(new MockEntity(123)));
+    }
+
+    @Test
+    public void storeAllAndRemoveAll() {
+        repository.storeAll(Arrays.asList(new MockEntity(1), new MockEntity(2), new MockEntity(3)));
+
+        Assert.assertEquals(3, repository.findAll().size());
+
+        repository.removeAll(Arrays.asList(1, 3));
+
+        Assert.assertEquals(1, repository.findAll().size());
+        Assert.assertNotNull(repository.find(2));
+    }
+
+    @Test
+    public void findAllNeverObservesHalfABatch() throws InterruptedException {
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                for (int round = 0; round < 2000; round++) {
+                    List<MockEntity> batch = new ArrayList<MockEntity>();
+                    for (int id = 0; id < 32; id++) {
+                        batch.add(new MockEntity(id, "round" + round));
+                    }
+                    repository.storeAll(batch);
+                }
+                done.set(true);
+            }
+        };
+        writer.start();
+        while (!done.get()) {
+            String round = null;
+            for (MockEntity entity : repository.findAll()) {
+                if (round == null) {
+                    round = entity.getName();
+                }
+                Assert.assertEquals(round, entity.getName());
+            }
+        }
+        writer.join();
+    }
+}
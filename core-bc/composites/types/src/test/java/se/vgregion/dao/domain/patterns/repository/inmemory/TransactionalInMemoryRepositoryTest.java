@@ -0,0 +1,126 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import java.util.ConcurrentModificationException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TransactionalInMemoryRepositoryTest {
+
+    private TransactionalInMemoryRepository<MockEntity, Integer> repository =
+            new TransactionalInMemoryRepository<MockEntity, Integer>();
+
+    @Test
+    public void writesAreVisibleToWriterBeforeFlush() {
+        repository.store(new MockEntity(1, "foo"));
+
+        Assert.assertEquals("foo", repository.find(1).getName());
+        Assert.assertEquals(1, repository.findAll().size());
+        Assert.assertTrue(repository.isTransactionActive());
+    }
+
+    @Test
+    public void writesAreInvisibleToOtherThreadsUntilFlush() throws InterruptedException {
+        repository.store(new MockEntity(1, "foo"));
+        repository.store(new MockEntity(2, "bar"));
+
+        Assert.assertEquals(0, countFromOtherThread());
+
+        repository.flush();
+
+        Assert.assertEquals(2, countFromOtherThread());
+        Assert.assertFalse(repository.isTransactionActive());
+    }
+
+    @Test
+    public void clearDiscardsUnflushedWrites() {
+        repository.store(new MockEntity(1, "foo"));
+        repository.flush();
+        repository.remove(1);
+        repository.store(new MockEntity(2, "bar"));
+
+        Assert.assertNull(repository.find(1));
+
+        repository.clear();
+
+        Assert.assertEquals("foo", repository.find(1).getName());
+        Assert.assertNull(repository.find(2));
+    }
+
+    @Test
+    public void conflictingCommitIsRejected() throws InterruptedException {
+        repository.store(new MockEntity(1, "foo"));
+        repository.flush();
+
+        repository.begin();
+        Assert.assertEquals("foo", repository.find(1).getName());
+
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                repository.store(new MockEntity(1, "bar"));
+                repository.flush();
+            }
+        };
+        other.start();
+        other.join();
+
+        repository.store(new MockEntity(1, "baz"));
+        try {
+            repository.flush();
+            Assert.fail("Expected a conflict");
+        } catch (ConcurrentModificationException e) {
+            Assert.assertEquals("bar", repository.find(1).getName());
+        }
+    }
+
+    @Test
+    public void disjointTransactionsCommit() throws InterruptedException {
+        repository.store(new MockEntity(1, "foo"));
+
+        Thread other = new Thread() {
+            @Override
+            public void run() {
+                repository.store(new MockEntity(2, "bar"));
+                repository.flush();
+            }
+        };
+        other.start();
+        other.join();
+
+        repository.flush();
+
+        Assert.assertEquals(2, repository.findAll().size());
+    }
+
+    private int countFromOtherThread() throws InterruptedException {
+        final int[] count = new int[1];
+        Thread reader = new Thread() {
+            @Override
+            public void run() {
+                count[0] = repository.findAll().size();
+            }
+        };
+        reader.start();
+        reader.join();
+        return count[0];
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.inmemory;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class VersionedInMemoryRepositoryTest {
+
+    private VersionedInMemoryRepository<MockEntity, Integer> repository =
+            new VersionedInMemoryRepository<MockEntity, Integer>();
+
+    @Test
+    public void store() {
+        repository.store(new MockEntity(123));
+
+        Assert.assertEquals(1, repository.findAll().size());
+        Assert.assertEquals(new Integer(123), repository.find(123).getId());
+    }
+
+    @Test
+    public void remove() {
+        repository.store(new MockEntity(123));
+        repository.remove(123);
+
+        Assert.assertNull(repository.find(123));
+        Assert.assertEquals(0, repository.findAll().size());
+    }
+
+    @Test
+    public void contains() {
+        repository.store(new MockEntity(123));
+
+        Assert.assertTrue(repository.contains(new MockEntity(123)));
+        Assert.assertFalse(repository.contains(new MockEntity(456)));
+    }
+
+    @Test
+    public void snapshotIsNotAffectedByLaterWrites() {
+        repository.store(new MockEntity(1, "foo"));
+        Snapshot<MockEntity, Integer> snapshot = repository.snapshot();
+
+        repository.store(new MockEntity(1, "bar"));
+        repository.store(new MockEntity(2));
+        repository.remove(1);
+
+        Assert.assertEquals(1, snapshot.size());
+        Assert.assertEquals("foo", snapshot.find(1).getName());
+        Assert.assertNull(snapshot.find(2));
+        Assert.assertEquals(1, repository.findAll().size());
+        Assert.assertTrue(repository.snapshot().getVersion() > snapshot.getVersion());
+    }
+
+    @Test
+    public void concurrentWritersAreAllPublished() throws InterruptedException {
+        Thread[] writers = new Thread[4];
+        for (int t = 0; t < writers.length; t++) {
+            final int offset = t * 1000;
+            writers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 1000; i++) {
+                        repository.store(new MockEntity(offset + i));
+                    }
+                }
+            };
+            writers[t].start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+
+        Assert.assertEquals(4000, repository.findAll().size());
+        Assert.assertEquals(4000, repository.snapshot().getVersion());
+    }
+}
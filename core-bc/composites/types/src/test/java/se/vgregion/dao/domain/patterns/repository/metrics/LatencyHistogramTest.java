@@ -0,0 +1,74 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    private LatencyHistogram histogram = new LatencyHistogram();
+
+    @Test
+    public void bucketsAreContiguousAndPrecise() {
+        for (long value = 0; value < 1L << 20; value += 7) {
+            int index = LatencyHistogram.indexOf(value);
+            long highest = LatencyHistogram.highestValueAt(index);
+            assertTrue(value <= highest);
+            assertTrue(index == 0 || value > LatencyHistogram.highestValueAt(index - 1));
+            assertTrue(highest - value <= value / 32);
+        }
+    }
+
+    @Test
+    public void percentiles() {
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(TimeUnit.MILLISECONDS), 0.01);
+        assertEquals(50, histogram.getPercentile(50, TimeUnit.MILLISECONDS), 50 / 32.0);
+        assertEquals(99, histogram.getPercentile(99, TimeUnit.MILLISECONDS), 99 / 32.0);
+        assertEquals(100, histogram.getPercentile(100, TimeUnit.MILLISECONDS), 0.0);
+        assertEquals(100, histogram.getMax(TimeUnit.MILLISECONDS), 0.0);
+    }
+
+    @Test
+    public void outOfRangeValuesAreClamped() {
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50, TimeUnit.NANOSECONDS), 0.0);
+        assertEquals((1L << 40) - 1, histogram.getMax(TimeUnit.NANOSECONDS), 0.0);
+    }
+
+    @Test
+    public void reset() {
+        histogram.record(1000);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99, TimeUnit.NANOSECONDS), 0.0);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.repository.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class RepositoryMetricsTest {
+
+    private RepositoryMetrics metrics = new RepositoryMetrics();
+
+    private MBeanServer mbeanServer = MBeanServerFactory.newMBeanServer();
+
+    @After
+    public void tearDown() {
+        metrics.unregisterMBeans();
+    }
+
+    @Test
+    public void recordsCallsPerRepositoryAndOperation() {
+        metrics.record("PersonRepository", "find", 1000000, 1, null);
+        metrics.record("PersonRepository", "find", 3000000, 0, new IllegalStateException());
+        metrics.record("PersonRepository", "findAll", 1000000, 20, null);
+
+        OperationMetrics find = metrics.getOperationMetrics("PersonRepository", "find");
+        assertEquals(2, find.getCallCount());
+        assertEquals(1, find.getErrorCount());
+        assertEquals(1, find.getRowCount());
+        assertEquals(3.0, find.getLatencyMaxMillis(), 0.0);
+        assertEquals(2, metrics.getOperationMetrics().size());
+    }
+
+    @Test
+    public void publishesOperationsAsMBeans() throws Exception {
+        metrics.record("PersonRepository", "find", 1000000, 1, null);
+        metrics.setMBeanServer(mbeanServer);
+        metrics.record("PersonRepository", "store", 1000000, 1, null);
+
+        ObjectName find = new ObjectName(
+                "se.vgregion.dao:type=RepositoryMetrics,repository=\"PersonRepository\",operation=\"find\"");
+        ObjectName store = new ObjectName(
+                "se.vgregion.dao:type=RepositoryMetrics,repository=\"PersonRepository\",operation=\"store\"");
+        assertEquals(1L, mbeanServer.getAttribute(find, "CallCount"));
+        assertEquals(1L, mbeanServer.getAttribute(store, "RowCount"));
+
+        metrics.unregisterMBeans();
+        assertFalse(mbeanServer.isRegistered(find));
+    }
+
+    @Test
+    public void notifiesListeners() {
+        final List<String> recorded = new ArrayList<String>();
+        metrics.addListener(new MetricsListener() {
+            public void callRecorded(OperationMetrics operation, long nanos, int rows, Throwable error) {
+                recorded.add(operation.getOperation() + ":" + rows);
+            }
+        });
+
+        metrics.record("PersonRepository", "findAll", 1000, 3, null);
+
+        assertEquals(1, recorded.size());
+        assertEquals("findAll:3", recorded.get(0));
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.support;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import se.vgregion.dao.domain.patterns.support.ToStringRenderer.Style;
+
+public class ToStringRendererTest {
+
+    @After
+    public void resetLimits() {
+        ToStringRenderer.setMaxDepth(0);
+        ToStringRenderer.setMaxLength(0);
+    }
+
+    @Test
+    public void shortPrefixStyle() {
+        Item item = new Item("foo", 3);
+
+        assertEquals("ToStringRendererTest.Item[count=3,name=foo,values=<null>]",
+                ToStringRenderer.render(item, Style.SHORT_PREFIX));
+    }
+
+    @Test
+    public void defaultStyle() {
+        Item item = new Item(null, 0);
+
+        String expected = Item.class.getName() + "@" + Integer.toHexString(System.identityHashCode(item))
+                + "[count=0,name=<null>,values=<null>]";
+        assertEquals(expected, ToStringRenderer.render(item, Style.DEFAULT));
+    }
+
+    @Test
+    public void arrays() {
+        Item item = new Item("foo", 1);
+        item.values = new Object[] { new int[] { 1, 2 }, null, "bar" };
+
+        assertEquals("ToStringRendererTest.Item[count=1,name=foo,values={{1,2},<null>,bar}]",
+                ToStringRenderer.render(item, Style.SHORT_PREFIX));
+    }
+
+    @Test
+    public void nestedObjectsAreRenderedThroughTheirToString() {
+        Node parent = new Node("parent");
+        parent.children.add(new Node("child"));
+
+        assertEquals("ToStringRendererTest.Node[children=[ToStringRendererTest.Node[children=[],name=child]],"
+                + "name=parent]", parent.toString());
+    }
+
+    @Test
+    public void cyclesAreRenderedAsIdentity() {
+        Node node = new Node("self");
+        node.children.add(node);
+
+        String identity = Node.class.getName() + "@" + Integer.toHexString(System.identityHashCode(node));
+        assertEquals("ToStringRendererTest.Node[children=[" + identity + "],name=self]", node.toString());
+    }
+
+    @Test
+    public void depthLimit() {
+        Node root = new Node("root");
+        Node child = new Node("child");
+        Node grandChild = new Node("grandChild");
+        root.children.add(child);
+        child.children.add(grandChild);
+        ToStringRenderer.setMaxDepth(1);
+
+        String identity = Node.class.getName() + "@" + Integer.toHexString(System.identityHashCode(grandChild));
+        assertEquals("ToStringRendererTest.Node[children=[ToStringRendererTest.Node[children=[" + identity
+                + "],name=child]],name=root]", root.toString());
+    }
+
+    @Test
+    public void lengthLimit() {
+        ToStringRenderer.setMaxLength(10);
+
+        assertEquals("ToStringRendererTest.Item[count=1,na...]",
+                ToStringRenderer.render(new Item("foo", 1), Style.SHORT_PREFIX));
+    }
+
+    @SuppressWarnings("unused")
+    private static class Item {
+
+        private static final String IGNORED = "static";
+
+        private final int count;
+
+        private final String name;
+
+        private Object[] values;
+
+        private transient String cached = "transient";
+
+        Item(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+    }
+
+    private static class Node {
+
+        private final List<Node> children = new ArrayList<Node>();
+
+        private final String name;
+
+        Node(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return ToStringRenderer.render(this, Style.SHORT_PREFIX);
+        }
+    }
+}
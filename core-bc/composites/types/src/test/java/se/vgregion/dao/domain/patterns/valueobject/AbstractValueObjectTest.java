@@ -21,6 +21,7 @@ package se.vgregion.dao.domain.patterns.valueobject;
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.*;
 
+import org.apache.commons.lang.builder.HashCodeBuilder;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -77,4 +78,51 @@ public class AbstractValueObjectTest {
         assertFalse(vo1.sameValueAs(vo2));
     }
 
+    @Test
+    public void testHashCodeIsBuiltFromFields() throws Exception {
+        assertEquals(17 * 37 + voName1.hashCode(), vo1.hashCode());
+        assertEquals(17 * 37, voNull1.hashCode());
+    }
+
+    @Test
+    public void testPrimitiveAndArrayFields() throws Exception {
+        MeasurementValueObject m1 = new MeasurementValueObject("m", 3, 12L, 4.0, true, new int[] { 1, 2 }, "a");
+        MeasurementValueObject m2 = new MeasurementValueObject("m", 3, 12L, 4.0, true, new int[] { 1, 2 }, "b");
+        MeasurementValueObject m3 = new MeasurementValueObject("m", 3, 12L, 4.0, true, new int[] { 1, 3 }, "a");
+        MeasurementValueObject m4 = new MeasurementValueObject("m", 3, 12L, 4.5, true, new int[] { 1, 2 }, "a");
+
+        assertTrue(m1.equals(m2));
+        assertEquals(m1.hashCode(), m2.hashCode());
+        assertFalse(m1.equals(m3));
+        assertFalse(m1.equals(m4));
+
+        int expected = 17;
+        expected = expected * 37 + 3;
+        expected = expected * 37 + (int) (12L ^ (12L >> 32));
+        long bits = Double.doubleToLongBits(4.0);
+        expected = expected * 37 + (int) (bits ^ (bits >> 32));
+        expected = expected * 37 + Boolean.TRUE.hashCode();
+        expected = (expected * 37 + 1) * 37 + 2;
+        expected = expected * 37 + "m".hashCode();
+        assertEquals(expected, m1.hashCode());
+        assertEquals(HashCodeBuilder.reflectionHashCode(m1, false), m1.hashCode());
+        assertEquals(HashCodeBuilder.reflectionHashCode(m3, false), m3.hashCode());
+    }
+
+    @Test
+    public void testHashCodeMatchesReflectionHashCode() throws Exception {
+        MeasurementValueObject m = new MeasurementValueObject("m", -3, -12L, -4.0, false, new int[] { -1 }, null);
+
+        assertEquals(HashCodeBuilder.reflectionHashCode(m, false), m.hashCode());
+        assertEquals(HashCodeBuilder.reflectionHashCode(vo1, false), vo1.hashCode());
+        assertEquals(HashCodeBuilder.reflectionHashCode(voNull1, false), voNull1.hashCode());
+    }
+
+    @Test
+    public void testSameAsWithSubclass() throws Exception {
+        MeasurementValueObject m = new MeasurementValueObject(voName1, 0, 0L, 0.0, false, null, null);
+
+        assertFalse(vo1.equals(m));
+        assertFalse(m.sameValueAs(vo1));
+    }
 }
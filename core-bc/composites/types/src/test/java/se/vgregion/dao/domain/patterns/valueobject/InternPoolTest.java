@@ -0,0 +1,52 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.valueobject;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class InternPoolTest {
+
+    private InternPool<MockValueObject> pool = new InternPool<MockValueObject>();
+
+    @Test
+    public void internReturnsTheCanonicalInstance() {
+        MockValueObject first = new MockValueObject("foo");
+        MockValueObject second = new MockValueObject("foo");
+
+        assertSame(first, pool.intern(first));
+        assertSame(first, pool.intern(second));
+        assertSame(first, pool.intern(first));
+        assertEquals(1, pool.size());
+        assertNull(pool.intern(null));
+    }
+
+    @Test
+    public void internedInstancesCompareByReference() {
+        MockValueObject foo = pool.intern(new MockValueObject("foo"));
+        MockValueObject bar = pool.intern(new MockValueObject("bar"));
+
+        assertFalse(foo.equals(bar));
+        assertTrue(foo.equals(new MockValueObject("foo")));
+        assertTrue(new MockValueObject("foo").equals(foo));
+        assertFalse(foo.equals(new InternPool<MockValueObject>().intern(new MockValueObject("bar"))));
+        assertTrue(foo.equals(new InternPool<MockValueObject>().intern(new MockValueObject("foo"))));
+    }
+}
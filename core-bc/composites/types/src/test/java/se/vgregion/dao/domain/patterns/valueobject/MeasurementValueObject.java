@@ -0,0 +1,54 @@
+/**
+ * Copyright 2010 Västra Götalandsregionen
+ *
+ *   This library is free software; you can redistribute it and/or modify
+ *   it under the terms of version 2.1 of the GNU Lesser General Public
+ *   License as published by the Free Software Foundation.
+ *
+ *   This library is distributed in the hope that it will be useful,
+ *   but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *   GNU Lesser General Public License for more details.
+ *
+ *   You should have received a copy of the GNU Lesser General Public
+ *   License along with this library; if not, write to the
+ *   Free Software Foundation, Inc., 59 Temple Place, Suite 330,
+ *   Boston, MA 02111-1307  USA
+ *
+ */
+package se.vgregion.dao.domain.patterns.valueobject;
+
+public class MeasurementValueObject extends MockValueObject {
+
+    private static final long serialVersionUID = 1L;
+
+    private static int instances;
+
+    private final int count;
+
+    private final long total;
+
+    private final double average;
+
+    private final boolean valid;
+
+    private final int[] samples;
+
+    private transient String description;
+
+    public MeasurementValueObject(String name, int count, long total, double average, boolean valid,
+            int[] samples, String description) {
+        super(name);
+        this.count = count;
+        this.total = total;
+        this.average = average;
+        this.valid = valid;
+        this.samples = samples;
+        this.description = description;
+        instances++;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}